@@ -0,0 +1,49 @@
+package gui;
+
+import model.APPModel;
+import model.Bench;
+import model.Instances;
+
+/**
+ * Benchmarks filling the tables from a model and writing a matching back to them, as the GUI does
+ * after loading and after every match (writeBackUnchanged: a match that changed nothing), on tables
+ * that are never shown (so it also runs headless).
+ * Takes the options of model.Bench; see model.ModelBench for how to compile and run.
+ *
+ * @author Mshnik
+ */
+public class WriteBackBench {
+
+  public static void main(String[] args) {
+    Bench bench = new Bench(args);
+    for(Instances.Shape shape : Instances.Shape.values()) {
+      String s = "[" + shape.label() + "]";
+      if (! bench.isSelected("fillTables" + s) && ! bench.isSelected("writeBack" + s)
+          && ! bench.isSelected("writeBackUnchanged" + s)) continue;
+      APPModel model = Instances.create(shape, bench.getPeople(), bench.getSeed());
+      model.match();
+      ItemTableModel itemTableModel = new ItemTableModel(model, 1);
+      ExpandingJTable itemTable = ExpandingJTable.create(itemTableModel);
+      ExpandingJTable peopleTable = ExpandingJTable.create(new PeopleTableModel(model, itemTableModel, 1));
+
+      bench.run("fillTables" + s, () -> {
+        GUI.fillTables(model, itemTable, peopleTable);
+        return peopleTable.getRowCount();
+      });
+      bench.run("writeBack" + s, () -> {
+        itemTable.beginBatch();
+        peopleTable.beginBatch();
+        GUI.writeBackMatching(model, null, model.getMatchingResult(), itemTable, peopleTable);
+        itemTable.commitBatch();
+        return peopleTable.commitBatch();
+      });
+      bench.run("writeBackUnchanged" + s, () -> {
+        itemTable.beginBatch();
+        peopleTable.beginBatch();
+        GUI.writeBackMatching(model, model.getMatchingResult(), model.getMatchingResult(), itemTable, peopleTable);
+        itemTable.commitBatch();
+        return peopleTable.commitBatch();
+      });
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package model;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A small benchmark runner in the spirit of JMH, for the suites in the bench source root. Each
+ * benchmark runs a number of warmup iterations, then measured iterations, each of which calls the
+ * benchmark until at least the iteration time has passed. Setup, if given, runs before every call
+ * and is not timed. Results are the mean time per call with its standard deviation across
+ * iterations, so the numbers of two builds can be compared directly.
+ *
+ * Options, shared by every suite: --filter <regex> (run only matching benchmark names),
+ * --warmup <n>, --iterations <n>, --time <ms per iteration>, --people <n>, --seed <n>.
+ *
+ * @author Mshnik
+ */
+public class Bench {
+
+  /** A benchmarked call. Whatever it returns is consumed, so the work cannot be optimized away. */
+  public interface Op {
+    Object run() throws Exception;
+  }
+
+  /** Untimed work before each call. */
+  public interface Setup {
+    void run() throws Exception;
+  }
+
+  private final Pattern filter;
+  private final int warmup;
+  private final int iterations;
+  private final long iterationNanos;
+  private final int people;
+  private final long seed;
+  private int sink;
+
+  public Bench(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for(int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i], args[i + 1]);
+    }
+    filter = Pattern.compile(options.getOrDefault("--filter", ".*"));
+    warmup = Integer.parseInt(options.getOrDefault("--warmup", "3"));
+    iterations = Integer.parseInt(options.getOrDefault("--iterations", "5"));
+    iterationNanos = Long.parseLong(options.getOrDefault("--time", "1000")) * 1000000;
+    people = Integer.parseInt(options.getOrDefault("--people", "10000"));
+    seed = Long.parseLong(options.getOrDefault("--seed", "42"));
+    System.out.printf("%-40s %12s %10s %10s%n", "Benchmark", "ms/op", "error", "calls");
+  }
+
+  public int getPeople() {
+    return people;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  /** True if the named benchmark passes --filter, so suites can skip building its instance. */
+  public boolean isSelected(String name) {
+    return filter.matcher(name).find();
+  }
+
+  public void run(String name, Op op) {
+    run(name, null, op);
+  }
+
+  public void run(String name, Setup setup, Op op) {
+    if (! isSelected(name)) return;
+    try {
+      for(int i = 0; i < warmup; i++) {
+        iteration(setup, op);
+      }
+      double[] perCall = new double[iterations];
+      long calls = 0;
+      for(int i = 0; i < iterations; i++) {
+        long[] result = iteration(setup, op);
+        perCall[i] = result[0] / 1e6 / result[1];
+        calls += result[1];
+      }
+      double mean = 0;
+      for(double t : perCall) mean += t;
+      mean /= iterations;
+      double var = 0;
+      for(double t : perCall) var += (t - mean) * (t - mean);
+      double error = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+      System.out.printf("%-40s %12.3f %10.3f %10d%n", name, mean, error, calls);
+    } catch (Exception e) {
+      System.out.printf("%-40s failed: %s%n", name, e);
+    }
+  }
+
+  /** Returns the timed nanoseconds and the number of calls. */
+  private long[] iteration(Setup setup, Op op) throws Exception {
+    long timed = 0;
+    long calls = 0;
+    while (timed < iterationNanos || calls == 0) {
+      if (setup != null) setup.run();
+      long start = System.nanoTime();
+      Object result = op.run();
+      timed += System.nanoTime() - start;
+      sink += System.identityHashCode(result);
+      calls++;
+    }
+    return new long[]{timed, calls};
+  }
+
+  /** Keeps the consumed results reachable. */
+  public int getSink() {
+    return sink;
+  }
+}
@@ -0,0 +1,95 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Seeded synthetic rosters for the benchmarks. The same shape, size and seed always give the same
+ * model. There is one item per 50 people, and capacities add up to about 90% of the people, so
+ * every shape has some contention.
+ *
+ * @author Mshnik
+ */
+public class Instances {
+
+  public enum Shape {
+    /** Ten choices each, uniformly at random, equal capacities. */
+    UNIFORM,
+    /** Everyone ranks the same three items and nothing else. */
+    SAME_THREE,
+    /** Ten uniform choices each, capacities falling off as 1 / rank of the item. */
+    SKEWED_CAPACITY,
+    /** A hundred choices each (or every item, if there are fewer). */
+    LONG_LISTS,
+    /** One or two choices each. */
+    SHORT_LISTS,
+    /** Ten choices each, all among the items of one of DEPARTMENTS departments. */
+    DEPARTMENTS;
+
+    public String label() {
+      return name().toLowerCase();
+    }
+  }
+
+  /** Number of departments of Shape.DEPARTMENTS, unless there are fewer items. */
+  private static final int DEPARTMENTS = 20;
+
+  private Instances() {}
+
+  public static APPModel create(Shape shape, int peopleCount, long seed) {
+    Random r = new Random(seed);
+    int itemCount = Math.max(3, peopleCount / 50);
+    int seats = (int) (peopleCount * 0.9);
+
+    APPModel model = new APPModel();
+    List<String> itemNames = new ArrayList<>(itemCount);
+    double skewTotal = 0;
+    for(int j = 0; j < itemCount; j++) {
+      skewTotal += 1.0 / (j + 1);
+    }
+    for(int j = 0; j < itemCount; j++) {
+      int cap = shape == Shape.SKEWED_CAPACITY
+          ? (int) Math.ceil(seats / skewTotal / (j + 1))
+          : (seats + itemCount - 1) / itemCount;
+      itemNames.add("item" + j);
+      model.createItem("item" + j, cap);
+    }
+
+    List<String> shuffled = new ArrayList<>(itemNames);
+    int departments = Math.min(DEPARTMENTS, itemCount);
+    List<List<String>> departmentItems = new ArrayList<>(departments);
+    for(int d = 0; d < departments; d++) {
+      departmentItems.add(new ArrayList<>(itemNames.subList(d * itemCount / departments, (d + 1) * itemCount / departments)));
+    }
+    for(int p = 0; p < peopleCount; p++) {
+      List<String> prefs;
+      switch (shape) {
+        case SAME_THREE:
+          prefs = new ArrayList<>(itemNames.subList(0, 3));
+          Collections.shuffle(prefs, r);
+          break;
+        case LONG_LISTS:
+          prefs = choose(shuffled, Math.min(100, itemCount), r);
+          break;
+        case SHORT_LISTS:
+          prefs = choose(shuffled, 1 + r.nextInt(2), r);
+          break;
+        case DEPARTMENTS:
+          List<String> department = departmentItems.get(r.nextInt(departments));
+          prefs = choose(department, Math.min(10, department.size()), r);
+          break;
+        default:
+          prefs = choose(shuffled, Math.min(10, itemCount), r);
+      }
+      model.createPerson("person" + p, r.nextInt(4), prefs);
+    }
+    return model;
+  }
+
+  /** The first count entries of a partial shuffle of names. */
+  private static List<String> choose(List<String> names, int count, Random r) {
+    for(int k = 0; k < count; k++) {
+      Collections.swap(names, k, k + r.nextInt(names.size() - k));
+    }
+    return new ArrayList<>(names.subList(0, count));
+  }
+}
@@ -0,0 +1,162 @@
+package model;
+
+import io.ObjectIO;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Benchmarks of the model package: matching (from scratch and after one edit), scoring, setting
+ * preferences, saving and loading in every format, and roster import and matching export. Each runs
+ * on every Instances.Shape that is relevant to it. Run from the project root with
+ *
+ *   javac -d out -cp UsefulThings.jar $(find src bench -name '*.java')
+ *   java -cp out:UsefulThings.jar model.ModelBench [options]
+ *
+ * with the options of Bench. See gui.WriteBackBench for writing a matching back to the tables.
+ *
+ * @author Mshnik
+ */
+public class ModelBench {
+
+  private static final ValueFunc OTHER = ValueFunc.ofScalingAndPowerFactors(1, 1, 1);
+
+  public static void main(String[] args) throws Exception {
+    Bench bench = new Bench(args);
+    Path dir = Files.createTempDirectory("bench");
+    for(Instances.Shape shape : Instances.Shape.values()) {
+      String s = "[" + shape.label() + "]";
+      if (! isAnySelected(bench, s)) continue;
+      APPModel model = Instances.create(shape, bench.getPeople(), bench.getSeed());
+      match(bench, s, model);
+      score(bench, s, model);
+      io(bench, s, model, dir);
+    }
+    String s = "[" + Instances.Shape.UNIFORM.label() + "]";
+    if (bench.isSelected("setPreferences" + s) || bench.isSelected("match.incremental" + s)) {
+      APPModel model = Instances.create(Instances.Shape.UNIFORM, bench.getPeople(), bench.getSeed());
+      setPreferences(bench, s, model);
+      incremental(bench, s, model);
+    }
+    for(File f : dir.toFile().listFiles()) {
+      f.delete();
+    }
+    Files.delete(dir);
+  }
+
+  private static boolean isAnySelected(Bench bench, String s) {
+    for(String name : new String[]{"match.full", "match.topChoices", "match.preview", "score", "maxScore", "save", "load", "map", "import", "export"}) {
+      if (bench.isSelected(name + s)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * A full solve every call: the model is invalidated beforehand by switching ValueFunc and back. For
+   * the top choices strategy it switches strategy and back, which drops the solver, and the serial
+   * dictatorship preview always matches from scratch.
+   */
+  private static void match(Bench bench, String s, APPModel model) {
+    ValueFunc f = model.getValueFunc();
+    bench.run("match.full" + s, () -> {
+      model.setValueFunc(OTHER);
+      model.setValueFunc(f);
+    }, model::match);
+    bench.run("match.topChoices" + s, () -> {
+      model.setMatchingStrategy(MatchingStrategy.OPTIMAL);
+      model.setMatchingStrategy(MatchingStrategy.TOP_CHOICES);
+    }, model::match);
+    model.setMatchingStrategy(MatchingStrategy.SERIAL_DICTATORSHIP);
+    bench.run("match.preview" + s, model::match);
+    model.setMatchingStrategy(MatchingStrategy.OPTIMAL);
+  }
+
+  private static void score(Bench bench, String s, APPModel model) {
+    model.match();
+    bench.run("score" + s, model::getMatchingScore);
+    bench.run("maxScore" + s, model::getMaxScore);
+  }
+
+  private static void io(Bench bench, String s, APPModel model, Path dir) throws Exception {
+    model.match();
+    Path appm = dir.resolve("model" + ScenarioIO.EXTENSION);
+    String ser = dir.resolve("model.ser").toString();
+    bench.run("save.appm" + s, () -> {
+      ScenarioIO.write(model, appm, true);
+      return appm;
+    });
+    bench.run("load.appm" + s, () -> ScenarioIO.read(appm));
+    bench.run("map.appm" + s, () -> MappedScenario.open(appm));
+    bench.run("save.ser" + s, () -> {
+      ObjectIO.write(model, ser);
+      return ser;
+    });
+    bench.run("load.ser" + s, () -> ObjectIO.read(APPModel.class, new File(ser)));
+
+    StringWriter items = new StringWriter();
+    StringWriter people = new StringWriter();
+    writeRoster(model, items, people);
+    bench.run("import" + s, () -> {
+      APPModel imported = new APPModel();
+      RosterImporter.importItems(imported, new StringReader(items.toString()));
+      return RosterImporter.importPeople(imported, new StringReader(people.toString()));
+    });
+    bench.run("export" + s, () -> {
+      StringWriter out = new StringWriter();
+      MatchingExporter.write(model, out, false);
+      return out;
+    });
+  }
+
+  private static void writeRoster(APPModel model, Writer items, Writer people) throws Exception {
+    for(Item i : model.getItems()) {
+      items.write(i.id() + "," + i._2 + "\n");
+    }
+    for(Person p : model.getPeople()) {
+      people.write(p.getName() + "," + p.getPriority());
+      for(Item i : p.getPreferencesInOrder()) {
+        people.write("," + i.id());
+      }
+      people.write("\n");
+    }
+  }
+
+  /** Person.setPreferences on standalone copies of every person, per call. */
+  private static void setPreferences(Bench bench, String s, APPModel model) {
+    List<Person> people = new ArrayList<>();
+    List<List<Item>> prefs = new ArrayList<>();
+    for(Person p : model.getPeople()) {
+      people.add(new Person(p.getName(), p.getPriority()));
+      List<Item> list = new ArrayList<>(p.getPreferencesInOrder());
+      Collections.reverse(list);
+      prefs.add(list);
+    }
+    bench.run("setPreferences" + s, () -> {
+      for(int k = 0; k < people.size(); k++) {
+        people.get(k).setPreferences(prefs.get(k));
+      }
+      return people;
+    });
+  }
+
+  /** One person's choices replaced, then the previous solution repaired. */
+  private static void incremental(Bench bench, String s, APPModel model) {
+    model.match();
+    List<Person> people = new ArrayList<>(model.getPeople());
+    List<String> itemNames = new ArrayList<>();
+    for(Item i : model.getItems()) {
+      itemNames.add(i.id());
+    }
+    Random r = new Random(bench.getSeed());
+    bench.run("match.incremental" + s, () -> {
+      Person p = people.get(r.nextInt(people.size()));
+      Collections.shuffle(itemNames, r);
+      model.updatePerson(p.getName(), p.getPriority(), itemNames.subList(0, Math.min(10, itemNames.size())));
+    }, model::match);
+  }
+}
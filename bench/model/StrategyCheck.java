@@ -0,0 +1,176 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Checks that every optimal MatchingStrategy (OPTIMAL, TOP_CHOICES, AUCTION and PARALLEL_AUCTION)
+ * finds a matching of the same size and weight as a fresh MinCostFlowMatcher, on random rosters and
+ * after each of a random series of edits to them, which the kept solvers repair rather than solve
+ * again. The rosters are small, with some items of no capacity, so that edits often set a capacity
+ * to 0 or back up. Every Instances.Shape is checked too, without edits.
+ *
+ * All these strategies finish on a MinCostFlowMatcher, so a fault in it would go unseen by comparing
+ * them with it alone. Half the rosters therefore have at most BRUTE_FORCE_PEOPLE people, few enough
+ * to try every assignment, and are also checked against the largest and then heaviest of those.
+ * Run from the project root with
+ *
+ *   javac -d out -cp UsefulThings.jar $(find src bench -name '*.java')
+ *   java -cp out:UsefulThings.jar model.StrategyCheck [--runs <n>] [--edits <n>] [--seed <n>]
+ *
+ * Prints every mismatch, and exits with status 1 if there was any.
+ *
+ * @author Mshnik
+ */
+public class StrategyCheck {
+
+  private static final List<MatchingStrategy> STRATEGIES = Arrays.asList(MatchingStrategy.OPTIMAL,
+      MatchingStrategy.TOP_CHOICES, MatchingStrategy.AUCTION, MatchingStrategy.PARALLEL_AUCTION);
+
+  /** People in each Instances.Shape checked. */
+  private static final int SHAPE_PEOPLE = 1000;
+  /** Rosters of at most this many people are also checked by trying every assignment. */
+  private static final int BRUTE_FORCE_PEOPLE = 8;
+
+  private int checks;
+  private int mismatches;
+
+  public static void main(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for(int i = 0; i + 1 < args.length; i += 2) {
+      options.put(args[i], args[i + 1]);
+    }
+    int runs = Integer.parseInt(options.getOrDefault("--runs", "200"));
+    int edits = Integer.parseInt(options.getOrDefault("--edits", "20"));
+    long seed = Long.parseLong(options.getOrDefault("--seed", "42"));
+
+    StrategyCheck check = new StrategyCheck();
+    for(MatchingStrategy strategy : STRATEGIES) {
+      for(Instances.Shape shape : Instances.Shape.values()) {
+        APPModel model = Instances.create(shape, SHAPE_PEOPLE, seed);
+        model.setMatchingStrategy(strategy);
+        model.match();
+        check.compare(model, strategy + " on " + shape.label());
+      }
+      for(int run = 0; run < runs; run++) {
+        check.run(strategy, seed + run, edits);
+      }
+    }
+    System.out.printf("%d checks, %d mismatches%n", check.checks, check.mismatches);
+    if (check.mismatches > 0) {
+      System.exit(1);
+    }
+  }
+
+  /** Matches the roster of the given seed with strategy, then after each of its edits. */
+  private void run(MatchingStrategy strategy, long seed, int edits) {
+    Random r = new Random(seed);
+    boolean isTiny = r.nextBoolean();
+    int peopleCount = isTiny ? 2 + r.nextInt(BRUTE_FORCE_PEOPLE - 1) : 10 + r.nextInt(70);
+    int itemCount = isTiny ? 2 + r.nextInt(3) : 2 + r.nextInt(10);
+    int maxCap = 2 * peopleCount / itemCount + 1;
+    List<String> itemNames = new ArrayList<>(itemCount);
+
+    APPModel model = new APPModel();
+    model.beginBatch();
+    for(int j = 0; j < itemCount; j++) {
+      itemNames.add("item" + j);
+      model.createItem("item" + j, r.nextInt(3) == 0 ? 0 : r.nextInt(maxCap + 1));
+    }
+    for(int p = 0; p < peopleCount; p++) {
+      model.createPerson("person" + p, r.nextInt(4), choose(itemNames, r));
+    }
+    model.commitBatch();
+    model.setMatchingStrategy(strategy);
+    model.match();
+    String s = strategy + ", seed " + seed;
+    compare(model, s);
+
+    for(int k = 0; k < edits; k++) {
+      String edit;
+      switch (r.nextInt(4)) {
+        case 0:
+          String name = itemNames.get(r.nextInt(itemCount));
+          model.setItemCapacity(name, 0);
+          edit = "capacity of " + name + " to 0";
+          break;
+        case 1:
+          name = itemNames.get(r.nextInt(itemCount));
+          int cap = 1 + r.nextInt(maxCap);
+          model.setItemCapacity(name, cap);
+          edit = "capacity of " + name + " to " + cap;
+          break;
+        case 2:
+          name = "person" + r.nextInt(peopleCount);
+          model.updatePerson(name, r.nextInt(4), choose(itemNames, r));
+          edit = "update of " + name;
+          break;
+        default:
+          model.setValueFunc(ValueFunc.ofScalingAndPowerFactors(1 + r.nextInt(3), 1 + r.nextInt(2), r.nextDouble()));
+          edit = "ValueFunc " + model.getValueFunc();
+      }
+      model.match();
+      if (! compare(model, s + ", edit " + k + " (" + edit + ")")) return;
+    }
+  }
+
+  /** Up to four of the names, in random order. */
+  private static List<String> choose(List<String> names, Random r) {
+    List<String> shuffled = new ArrayList<>(names);
+    Collections.shuffle(shuffled, r);
+    return new ArrayList<>(shuffled.subList(0, 1 + r.nextInt(Math.min(4, names.size()))));
+  }
+
+  /**
+   * Compares the matching of model with a fresh solve, and if it is small enough with every assignment,
+   * printing it if they differ.
+   */
+  private boolean compare(APPModel model, String s) {
+    checks++;
+    MinCostFlowMatcher solver = new MinCostFlowMatcher((PreferenceGraph) model.compile());
+    solver.solve();
+    int matched = model.getMatchingResult().getMatched();
+    if (matched != solver.getMatchedCount() || model.getObjective() != solver.getObjective()) {
+      mismatches++;
+      System.out.printf("%s: matched %d with weight %d, a fresh solve %d with weight %d%n", s, matched,
+          model.getObjective(), solver.getMatchedCount(), solver.getObjective());
+      return false;
+    }
+    PreferenceGraph graph = (PreferenceGraph) model.compile();
+    if (graph.getPeopleCount() <= BRUTE_FORCE_PEOPLE) {
+      checks++;
+      long[] best = new long[]{0, 0};
+      bruteForce(graph, 0, new int[graph.getItemCount()], 0, 0, best);
+      if (matched != best[0] || model.getObjective() != best[1]) {
+        mismatches++;
+        System.out.printf("%s: matched %d with weight %d, trying every assignment %d with weight %d%n", s,
+            matched, model.getObjective(), best[0], best[1]);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tries every assignment of people p onwards, given the seats taken so far and the size and weight
+   * of the assignment of the people before p, keeping in best the size and weight of the largest, and
+   * then heaviest, assignment found.
+   */
+  private static void bruteForce(PreferenceGraph graph, int p, int[] load, long matched, long weight, long[] best) {
+    if (p == graph.getPeopleCount()) {
+      if (matched > best[0] || matched == best[0] && weight > best[1]) {
+        best[0] = matched;
+        best[1] = weight;
+      }
+      return;
+    }
+    bruteForce(graph, p + 1, load, matched, weight, best);
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      int j = graph.edgeItem(e);
+      if (j != -1 && load[j] < graph.capacity(j)) {
+        load[j]++;
+        bruteForce(graph, p + 1, load, matched + 1, weight + graph.edgeWeight(p, e), best);
+        load[j]--;
+      }
+    }
+  }
+}
@@ -9,7 +9,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
-import java.util.StringTokenizer;
 
 /**
  * ExcelAdapter enables Copy-Paste Clipboard functionality on JTables.
@@ -18,8 +17,6 @@ import java.util.StringTokenizer;
  * interoperability between enabled JTables and Excel.
  */
 public class ExcelAdapter implements ActionListener {
-  private String rowstring;
-  private String value;
   private Clipboard system;
   private StringSelection stsel;
   private JTable jTable1;
@@ -95,23 +92,27 @@ public class ExcelAdapter implements ActionListener {
       system.setContents(stsel, stsel);
     }
     if (e.getActionCommand().compareTo("Paste") == 0) {
-      System.out.println("Trying to Paste");
       int startRow = (jTable1.getSelectedRows())[0];
       int startCol = (jTable1.getSelectedColumns())[0];
       try {
         String trstring = (String) (system.getContents(this).getTransferData(DataFlavor.stringFlavor));
         trstring = trstring.replaceAll("\\r\\n","\n").replaceAll("\\r", "\n");
-        System.out.println("String is:" + trstring);
-        StringTokenizer st1 = new StringTokenizer(trstring, "\n");
-        for (int i = 0; st1.hasMoreTokens(); i++) {
-          rowstring = st1.nextToken();
-          StringTokenizer st2 = new StringTokenizer(rowstring, "\t");
-          for (int j = 0; st2.hasMoreTokens(); j++) {
-            value = st2.nextToken();
-            if (startRow + i < jTable1.getRowCount() &&
-                startCol + j < jTable1.getColumnCount())
-              jTable1.setValueAt(value, startRow + i, startCol + j);
-            System.out.println("Putting " + value + "at row = "+startRow+i+" column = "+startCol+j);
+        String[] rows = trstring.split("\n");
+        Object[][] values = new Object[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+          String[] cells = rows[i].split("\t", -1);
+          values[i] = new Object[cells.length];
+          for (int j = 0; j < cells.length; j++) {
+            values[i][j] = cells[j].isEmpty() ? null : cells[j];
+          }
+        }
+        if (jTable1 instanceof ExpandingJTable) {
+          ((ExpandingJTable) jTable1).setValues(startRow, startCol, values);
+        } else {
+          for (int i = 0; i < values.length && startRow + i < jTable1.getRowCount(); i++) {
+            for (int j = 0; j < values[i].length && startCol + j < jTable1.getColumnCount(); j++) {
+              jTable1.setValueAt(values[i][j], startRow + i, startCol + j);
+            }
           }
         }
       } catch (Exception ex) {
@@ -1,15 +1,19 @@
 package gui;
 
-import common.types.Either;
-
 import javax.swing.*;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.Objects;
+import java.util.Vector;
 import java.util.function.Predicate;
 import java.awt.*;
 
@@ -19,34 +23,54 @@ import java.awt.*;
  */
 public class ExpandingJTable extends JTable {
 
-  private Map<Integer, Either<Predicate<String>, Map<Integer, Predicate<String>>>> validatorMap;
+  private Map<Integer, Predicate<String>> validatorMap;
   private Map<Integer, String> invalidMessageMap;
   private Map<Integer, Boolean> isColEditable;
+  private Map<Integer, ColumnIndex> columnIndexes;
+
+  /** Predicate for columns from this one on that have none of their own. */
+  private int sharedPredicateCol = Integer.MAX_VALUE;
+  private Predicate<String> sharedPredicate;
+  private String sharedInvalidMessage;
 
   private List<Integer> comboBoxCols;
 
-  private boolean[][] cellHighlight;
+  /** Model column of the highlighted cell of each row, or -1. */
+  private int[] highlightedColumn = new int[0];
   private boolean retainSelectionWhenFocusLost = false;
 
+  /** What an ExpandingJTable needs of its model: a way to add a row, and to batch edits. */
+  interface Model extends TableModel {
+    void addRow();
+
+    /** Starts a batch of edits; see ExpandingJTable.beginBatch(). */
+    void beginBatch();
+
+    /** Ends a batch of edits; see ExpandingJTable.commitBatch(). */
+    boolean commitBatch();
+  }
+
+  /** A table that holds its own cells, rows x columns of them, all empty to start with. */
   public static ExpandingJTable create(int rows, String... columnNames) {
     Object[][] data = new Object[rows][columnNames.length];
-    DefaultTableModel model = new MyTableModel(data, columnNames);
+    return create(new MyTableModel(data, columnNames));
+  }
+
+  /** A table that shows the given model, which holds the cells. */
+  static ExpandingJTable create(Model model) {
     ExpandingJTable table = new ExpandingJTable(model);
     table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
     table.setPreferredScrollableViewportSize(table.getPreferredSize());
     return table;
   }
 
-  private ExpandingJTable(DefaultTableModel model) {
+  private ExpandingJTable(Model model) {
     super(model);
 
     validatorMap = new HashMap<>();
     isColEditable = new HashMap<>();
     invalidMessageMap = new HashMap<>();
-    for(int i = 0; i < getColumnCount(); i++) {
-      isColEditable.put(i, true);
-    }
-    ((MyTableModel)getModel()).isColEditable = isColEditable;
+    columnIndexes = new HashMap<>();
 
     gridColor = Color.GRAY;
     setSelectionBackground(Color.LIGHT_GRAY);
@@ -61,13 +85,8 @@ public class ExpandingJTable extends JTable {
       public boolean verify(JComponent input) {
         String text = ((JTextField) input).getText();
         int col = getSelectedColumn();
-        int row = getSelectedRow();
-        if (!validatorMap.containsKey(col)) return true;
-        if (validatorMap.get(col).isLeft()) {
-          return validatorMap.get(col).asLeft().test(text);
-        } else {
-          return validatorMap.get(col).asRight().containsKey(row) && validatorMap.get(col).asRight().get(row).test(text);
-        }
+        if (!validatorMap.containsKey(col)) return col < sharedPredicateCol || sharedPredicate.test(text);
+        return validatorMap.get(col).test(text);
       }
 
       @Override
@@ -75,7 +94,8 @@ public class ExpandingJTable extends JTable {
         boolean valid = verify(input);
         if (!valid) {
           int col = getSelectedColumn();
-          JOptionPane.showMessageDialog(null, "Invalid Input: " + invalidMessageMap.get(col));
+          String message = invalidMessageMap.containsKey(col) ? invalidMessageMap.get(col) : sharedInvalidMessage;
+          JOptionPane.showMessageDialog(null, "Invalid Input: " + message);
         }
         return valid;
       }
@@ -121,31 +141,26 @@ public class ExpandingJTable extends JTable {
     }
   };
 
+  /** Passes text that no cell of the given model column holds, looked up in an index of the column. */
   public Predicate<String> uniqueForCol(final int col) {
-    return (s) -> {
-      if (s == null || s.equals("")) return true;
-      for(int r = 0; r < getRowCount(); r++) {
-        Object val = getValueAt(r, col);
-        if (val != null && val.toString().equals(s)) {
-          return false;
-        }
-      }
-      return true;
-    };
+    ColumnIndex index = columnIndexes.computeIfAbsent(col, ColumnIndex::new);
+    return (s) -> s == null || s.equals("") || ! index.contains(s);
   }
 
   public ExpandingJTable setColPredicate(int col, Predicate<String> pred, String messageOnInvalid) {
-    validatorMap.put(col, Either.createLeft(pred));
+    validatorMap.put(col, pred);
     invalidMessageMap.put(col, messageOnInvalid);
     return this;
   }
 
-  public ExpandingJTable setCellPredicate(int row, int col, Predicate<String> pred, String messageOnInvalid) {
-    if (! validatorMap.containsKey(col)) {
-      validatorMap.put(col, Either.createRight(new HashMap<>()));
-    }
-    validatorMap.get(col).asRight().put(row, pred);
-    invalidMessageMap.put(col, messageOnInvalid);
+  /**
+   * Sets one predicate for the given column and every column after it, including columns added
+   * later, except those with a predicate of their own.
+   */
+  public ExpandingJTable setColPredicateFrom(int col, Predicate<String> pred, String messageOnInvalid) {
+    sharedPredicateCol = col;
+    sharedPredicate = pred;
+    sharedInvalidMessage = messageOnInvalid;
     return this;
   }
 
@@ -154,21 +169,82 @@ public class ExpandingJTable extends JTable {
     return this;
   }
 
+  @Override
+  public boolean isCellEditable(int row, int column) {
+    return isColEditable.getOrDefault(convertColumnIndexToModel(column), true) && super.isCellEditable(row, column);
+  }
+
   public void addRow() {
-    DefaultTableModel model = (DefaultTableModel)getModel();
-    Object[] row = new Object[getColumnCount()];
-    model.addRow(row);
+    ((Model)getModel()).addRow();
   }
 
-  public void addCol(String header, boolean isEditable) {
-    isColEditable.put(getColumnCount(), isEditable);
-    DefaultTableModel model = (DefaultTableModel)getModel();
-    model.addColumn(header);
+  @Override
+  public void tableChanged(TableModelEvent e) {
+    super.tableChanged(e);
+    if (columnIndexes != null) {
+      for(ColumnIndex index : columnIndexes.values()) {
+        index.tableChanged(e);
+      }
+    }
   }
 
-  public ExpandingJTable setCellHighlight(boolean[][] cellHighlight) {
-    this.cellHighlight = cellHighlight;
-    return this;
+  /**
+   * Starts a batch of edits. Until the matching commitBatch(), setValueAt only stores values, and
+   * listeners hear nothing. Batches nest.
+   */
+  public void beginBatch() {
+    ((Model)getModel()).beginBatch();
+  }
+
+  /**
+   * Ends a batch. When the outermost batch ends, a single rows-updated event covering every row that
+   * changed is fired, or none if nothing changed. Returns whether an event was fired.
+   */
+  public boolean commitBatch() {
+    return ((Model)getModel()).commitBatch();
+  }
+
+  /** Sets the block of cells with values[0][0] at (row, col) as one batch. Cells past the table edge are dropped. */
+  public void setValues(int row, int col, Object[][] values) {
+    beginBatch();
+    try {
+      for(int r = 0; r < values.length && row + r < getRowCount(); r++) {
+        for(int c = 0; c < values[r].length && col + c < getColumnCount(); c++) {
+          setValueAt(values[r][c], row + r, col + c);
+        }
+      }
+    } finally {
+      commitBatch();
+    }
+  }
+
+  /**
+   * Highlights the cell of the given model column in the given row, and no other cell of that row;
+   * -1 highlights none. Repaints just the cells that change.
+   */
+  public void setHighlightedColumn(int row, int col) {
+    int old = getHighlightedColumn(row);
+    if (old == col) return;
+    if (row >= highlightedColumn.length) {
+      int length = highlightedColumn.length;
+      highlightedColumn = Arrays.copyOf(highlightedColumn, Math.max(row + 1, length + (length >> 1)));
+      Arrays.fill(highlightedColumn, length, highlightedColumn.length, -1);
+    }
+    highlightedColumn[row] = col;
+    repaintCell(row, old);
+    repaintCell(row, col);
+  }
+
+  /** Model column of the highlighted cell in the given row, or -1 if there is none. */
+  public int getHighlightedColumn(int row) {
+    return row < highlightedColumn.length ? highlightedColumn[row] : -1;
+  }
+
+  private void repaintCell(int row, int col) {
+    int viewCol = col == -1 ? -1 : convertColumnIndexToView(col);
+    if (viewCol != -1 && row < getRowCount()) {
+      repaint(getCellRect(row, viewCol, false));
+    }
   }
 
   public ExpandingJTable setComboBoxes(List<Integer> comboBoxCols, List<String> comboBoxChoices) {
@@ -222,18 +298,135 @@ public class ExpandingJTable extends JTable {
     }
   }
 
-  private static class MyTableModel extends DefaultTableModel {
+  private static class MyTableModel extends DefaultTableModel implements Model {
 
-    private Map<Integer, Boolean> isColEditable;
     private List<Integer> comboBoxCols;
+    private int batchDepth;
+    private int firstChangedRow = -1;
+    private int lastChangedRow = -1;
 
     public MyTableModel(Object[][] data, String[] headers){
       super(data, headers);
     }
 
+    @Override
+    public void addRow() {
+      addRow(new Object[getColumnCount()]);
+    }
+
+    @Override
+    public void beginBatch() {
+      batchDepth++;
+    }
+
+    @Override
+    public boolean commitBatch() {
+      if (batchDepth == 0) throw new IllegalStateException("commitBatch() without beginBatch()");
+      if (--batchDepth > 0 || firstChangedRow == -1) return false;
+      int first = Math.min(firstChangedRow, getRowCount() - 1);
+      int last = Math.min(lastChangedRow, getRowCount() - 1);
+      firstChangedRow = -1;
+      lastChangedRow = -1;
+      if (first < 0) return false;
+      fireTableRowsUpdated(first, last);
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setValueAt(Object value, int row, int column) {
+      if (batchDepth == 0) {
+        super.setValueAt(value, row, column);
+        return;
+      }
+      Vector<Object> rowVector = (Vector<Object>)getDataVector().get(row);
+      if (! Objects.equals(rowVector.get(column), value)) {
+        rowVector.set(column, value);
+        firstChangedRow = firstChangedRow == -1 ? row : Math.min(firstChangedRow, row);
+        lastChangedRow = Math.max(lastChangedRow, row);
+      }
+    }
+
     public boolean isCellEditable(int row, int column){
-      return isColEditable.get(column) && (comboBoxCols == null || ! comboBoxCols.contains(column) ||
-             getValueAt(row, 0) != null);
+      return comboBoxCols == null || ! comboBoxCols.contains(column) || getValueAt(row, 0) != null;
+    }
+  }
+
+  /**
+   * How many cells of one model column hold each value, kept up to date from the events of the model:
+   * the rows an update, insert or delete names are read again, and anything larger (all data
+   * changed, a new structure) makes the index read the whole column when it is next asked.
+   */
+  private class ColumnIndex {
+    private final int col;
+    private final List<String> values = new ArrayList<>();
+    private final Map<String, Integer> counts = new HashMap<>();
+    private boolean stale = true;
+
+    ColumnIndex(int col) {
+      this.col = col;
+    }
+
+    boolean contains(String value) {
+      if (stale) {
+        values.clear();
+        counts.clear();
+        for(int r = 0; r < getModel().getRowCount(); r++) {
+          values.add(null);
+          set(r);
+        }
+        stale = false;
+      }
+      return counts.containsKey(value);
+    }
+
+    void tableChanged(TableModelEvent e) {
+      if (stale) return;
+      int first = e.getFirstRow();
+      int last = e.getLastRow();
+      if (first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE) {
+        stale = true;
+        return;
+      }
+      int rows = values.size();
+      if (e.getType() == TableModelEvent.INSERT) {
+        rows += last - first + 1;
+      } else if (e.getType() == TableModelEvent.DELETE) {
+        rows -= last - first + 1;
+      }
+      if (rows != getModel().getRowCount() || last >= Math.max(rows, values.size())) {
+        stale = true;
+      } else if (e.getType() == TableModelEvent.INSERT) {
+        for(int r = first; r <= last; r++) {
+          values.add(r, null);
+          set(r);
+        }
+      } else if (e.getType() == TableModelEvent.DELETE) {
+        for(int r = last; r >= first; r--) {
+          count(values.remove(r), -1);
+        }
+      } else if (e.getColumn() == TableModelEvent.ALL_COLUMNS || e.getColumn() == col) {
+        for(int r = first; r <= last; r++) {
+          set(r);
+        }
+      }
+    }
+
+    /** Reads row r of the column again. */
+    private void set(int r) {
+      Object value = getModel().getValueAt(r, col);
+      String text = value == null ? null : value.toString();
+      if (! Objects.equals(values.get(r), text)) {
+        count(values.get(r), -1);
+        values.set(r, text);
+        count(text, 1);
+      }
+    }
+
+    private void count(String value, int change) {
+      if (value != null) {
+        counts.merge(value, change, (a, b) -> a + b == 0 ? null : a + b);
+      }
     }
   }
 
@@ -242,7 +435,7 @@ public class ExpandingJTable extends JTable {
     public Component getTableCellRendererComponent(JTable table, Object value, boolean   isSelected, boolean hasFocus, int row, int column) {
       Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
       if (! table.isRowSelected(row)) {
-        if(cellHighlight != null && row < cellHighlight.length && column < cellHighlight[row].length && cellHighlight[row][column]) c.setBackground(Color.GREEN);
+        if(getHighlightedColumn(row) == convertColumnIndexToModel(column)) c.setBackground(Color.GREEN);
         else c.setBackground(table.getBackground());
       }
       return c;
@@ -3,22 +3,33 @@ package gui;
 import io.ObjectIO;
 import model.APPModel;
 import model.Item;
+import model.MatchMonitor;
+import model.MatchStats;
+import model.MatchingExporter;
+import model.MatchingResult;
+import model.MatchingStrategy;
 import model.Person;
+import model.RosterImporter;
+import model.ScenarioIO;
 import common.Copyable;
 import graph.matching.Matching;
-import io.TextIO;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.TableModelEvent;
 import javax.swing.filechooser.FileFilter;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -26,21 +37,16 @@ import java.util.stream.IntStream;
  */
 public class GUI extends JFrame {
 
-  private static int NAME_COL = 0;
-  private static int CAPACITY_COL = 1;
-  private static int PRIORITY_COL = 1;
-
   private static int START_ITEM_COUNT = 15;
   private static int START_PEOPLE_COUNT = 20;
-  private static int PEOPLE_CHOICE_COLS_TO_SHOW = 6;
-  private static int PEOPLE_NON_CHOICE_COL_COUNT = 2;
-
-  private static String NO_CHOICE_STRING = "----";
 
   private APPModel model;
+  /** The matching the tables show, so that the next one only touches what differs. */
+  private MatchingResult shownMatching;
   private boolean clearMatchingOnEdit;
   private boolean supressModelUpdateListener;
-  private long timeOnStartMatching;
+  private MatchWorker matchWorker;
+  private List<JComponent> lockedWhileMatching;
 
   private ValueFuncPane valueFuncPane;
   private ExpandingJTable itemTable;
@@ -67,9 +73,17 @@ public class GUI extends JFrame {
 
   }
 
+  private static String formatMatchingProgress(int matched, int augmentations, double score) {
+    return "Matching... " + matched + " matched, " + augmentations + " augmentations, " + score + " points";
+  }
+
   private JLabel matchingTimeLabel;
   private JLabel matchingCompletenessLabel;
   private JLabel matchingScoreLabel;
+  private JLabel matchingProgressLabel;
+  private JButton stopMatchButton;
+  private JSpinner timeLimitSpinner;
+  private JComboBox<MatchingStrategy> strategyComboBox;
 
   public GUI() {
     super();
@@ -78,23 +92,15 @@ public class GUI extends JFrame {
     model = new APPModel();
     clearMatchingOnEdit = true;
     supressModelUpdateListener = false;
-    timeOnStartMatching = -1;
+    lockedWhileMatching = new ArrayList<>();
 
     valueFuncPane = new ValueFuncPane();
 
-    itemTable = ExpandingJTable.create(START_ITEM_COUNT, "Name","Capacity","Enrollment");
+    ItemTableModel itemTableModel = new ItemTableModel(model, START_ITEM_COUNT);
+    itemTable = ExpandingJTable.create(itemTableModel);
     ExcelAdapter.registerCopyPaste(itemTable);
 
-    String[] choiceHeaders = new String[PEOPLE_NON_CHOICE_COL_COUNT + PEOPLE_CHOICE_COLS_TO_SHOW];
-    choiceHeaders[0] = "Name";
-    choiceHeaders[1] = "Priority";
-    for(int i = PEOPLE_NON_CHOICE_COL_COUNT-1; i <= PEOPLE_CHOICE_COLS_TO_SHOW; i++) {
-      choiceHeaders[i+PEOPLE_NON_CHOICE_COL_COUNT-1] = getStringForChoice(i);
-    }
-    peopleTable = ExpandingJTable.create(START_PEOPLE_COUNT, choiceHeaders);
-    for(int i = 0; i < START_ITEM_COUNT - PEOPLE_CHOICE_COLS_TO_SHOW; i++) {
-      peopleTable.addCol(getStringForChoice(PEOPLE_CHOICE_COLS_TO_SHOW + i + 1), true);
-    }
+    peopleTable = ExpandingJTable.create(new PeopleTableModel(model, itemTableModel, START_PEOPLE_COUNT));
     ExcelAdapter.registerCopyPaste(peopleTable);
 
     setUpNorthPanel();
@@ -106,35 +112,23 @@ public class GUI extends JFrame {
     itemTable.setColPredicate(1, ExpandingJTable.INTS_ONLY.and(
         (s) -> s == null || s.equals("") || Integer.parseInt(s) >= 0),
         "Must be Integer and non-negative");
-    itemTable.setColEditable(2, false);
-    itemTable.getModel().addTableModelListener((e) -> updateModel());
+    itemTable.setColEditable(ItemTableModel.ENROLLMENT_COL, false);
+    // The table models edit the model themselves; all that is left is to drop the matching.
+    itemTable.getModel().addTableModelListener((e) -> {
+      if (! supressModelUpdateListener) {
+        afterModelEdit();
+      }
+    });
 
     peopleTable.setColPredicate(0, peopleTable.uniqueForCol(0), "Must be distinct from other entries");
     peopleTable.setColPredicate(1, ExpandingJTable.INTS_ONLY, "Must be Integer");
-    for(int c = PEOPLE_NON_CHOICE_COL_COUNT; c < peopleTable.getColumnCount(); c++) {
-      peopleTable.setCellPredicate(-1, c, (s) -> s== null || s.equals(""), "Must be an Item, and distinct from others");
-      for(int r = 0; r < peopleTable.getRowCount(); r++) {
-        peopleTable.setCellPredicate(r, c, (s) -> {
-          if (s == null || s.equals("")) return true;
-          for(Item i : model.getItems()) {
-            if (i.id().equals(s)) return true;
-          }
-          return false;
-        }, "Must be an Item, and distinct from others");
-      }
-    }
+    peopleTable.setColPredicateFrom(PeopleTableModel.NON_CHOICE_COL_COUNT,
+        (s) -> s == null || s.equals("") || s.equals(PeopleTableModel.NO_CHOICE_STRING) || model.getItem(s) != null,
+        "Must be an Item");
+    // A new column comes from a new item row, which the item table listener has seen to.
     peopleTable.getModel().addTableModelListener((e) -> {
-      if (! supressModelUpdateListener) {
-        if (e.getColumn() >= PEOPLE_NON_CHOICE_COL_COUNT) {
-          supressModelUpdateListener = true;
-          for (int c = PEOPLE_NON_CHOICE_COL_COUNT; c < peopleTable.getColumnCount(); c++) {
-            if (c != e.getColumn() && Objects.equals(peopleTable.getValueAt(e.getFirstRow(), e.getColumn()),peopleTable.getValueAt(e.getFirstRow(), c))) {
-              peopleTable.setValueAt(NO_CHOICE_STRING, e.getFirstRow(), c);
-            }
-          }
-          supressModelUpdateListener = false;
-        }
-        updateModel();
+      if (! supressModelUpdateListener && e.getFirstRow() != TableModelEvent.HEADER_ROW) {
+        afterModelEdit();
       }
     });
 
@@ -161,8 +155,20 @@ public class GUI extends JFrame {
     JButton saveButton = new JButton("Save Data");
     saveButton.addActionListener((e) -> saveData());
 
+    JButton importItemsButton = new JButton("Import Items...");
+    importItemsButton.addActionListener((e) -> importRoster(false));
+
+    JButton importPeopleButton = new JButton("Import People...");
+    importPeopleButton.addActionListener((e) -> importRoster(true));
+
     northPanel.add(loadButton);
     northPanel.add(saveButton);
+    northPanel.add(importItemsButton);
+    northPanel.add(importPeopleButton);
+    lockedWhileMatching.add(loadButton);
+    lockedWhileMatching.add(saveButton);
+    lockedWhileMatching.add(importItemsButton);
+    lockedWhileMatching.add(importPeopleButton);
 
     getContentPane().add(northPanel, BorderLayout.NORTH);
   }
@@ -206,10 +212,13 @@ public class GUI extends JFrame {
 
   private void setUpBottomPanel() {
     JButton matchButton = new JButton("Match");
-    matchButton.addActionListener((e) -> {
-      timeOnStartMatching = System.currentTimeMillis();
-      model.match();
-      updateMatching();
+    matchButton.addActionListener((e) -> startMatching());
+    stopMatchButton = new JButton("Stop");
+    stopMatchButton.setEnabled(false);
+    stopMatchButton.addActionListener((e) -> {
+      if (matchWorker != null) {
+        matchWorker.requestStop();
+      }
     });
     JButton clearMatchButton = new JButton("Clear");
     clearMatchButton.addActionListener((e) -> {
@@ -230,18 +239,43 @@ public class GUI extends JFrame {
     JPanel buttonPanel = setStandardMargins(new JPanel());
     buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.Y_AXIS));
     buttonPanel.add(matchButton);
+    buttonPanel.add(stopMatchButton);
     buttonPanel.add(clearMatchButton);
     buttonPanel.add(outputMatchButton);
+    lockedWhileMatching.add(matchButton);
+    lockedWhileMatching.add(clearMatchButton);
+    lockedWhileMatching.add(outputMatchButton);
+    lockedWhileMatching.add(peopleTable);
+    lockedWhileMatching.add(itemTable);
+
+    timeLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 1));
+    JPanel timeLimitPanel = new JPanel();
+    timeLimitPanel.setLayout(new BoxLayout(timeLimitPanel, BoxLayout.X_AXIS));
+    timeLimitPanel.add(new JLabel("Time limit (s, 0 for none): "));
+    timeLimitPanel.add(timeLimitSpinner);
+    timeLimitPanel.setMaximumSize(timeLimitPanel.getPreferredSize());
+
+    strategyComboBox = new JComboBox<>(MatchingStrategy.BUILT_IN.toArray(new MatchingStrategy[0]));
+    JPanel strategyPanel = new JPanel();
+    strategyPanel.setLayout(new BoxLayout(strategyPanel, BoxLayout.X_AXIS));
+    strategyPanel.add(new JLabel("Strategy: "));
+    strategyPanel.add(strategyComboBox);
+    strategyPanel.setMaximumSize(strategyPanel.getPreferredSize());
+    lockedWhileMatching.add(strategyComboBox);
 
     JPanel infoPanel = setStandardMargins(new JPanel());
     infoPanel.setLayout(new BoxLayout(infoPanel, BoxLayout.Y_AXIS));
     matchingTimeLabel = new JLabel(formatMatchingTime(-1));
     matchingCompletenessLabel = new JLabel(formatMatchingCompleteness(-1));
     matchingScoreLabel = new JLabel(formatMatchingScore(-1,1));
+    matchingProgressLabel = new JLabel("");
 
+    infoPanel.add(leftJustify(strategyPanel));
+    infoPanel.add(leftJustify(timeLimitPanel));
     infoPanel.add(matchingTimeLabel);
     infoPanel.add(matchingCompletenessLabel);
     infoPanel.add(matchingScoreLabel);
+    infoPanel.add(matchingProgressLabel);
 
     JPanel splitPanel = new JPanel();
     splitPanel.setLayout(new BoxLayout(splitPanel, BoxLayout.X_AXIS));
@@ -259,80 +293,105 @@ public class GUI extends JFrame {
       final int repetitions = repetitionsSupplier.get();
       for(int i = 0; i < repetitions; i++) {
         table.addRow();
-        if (table == itemTable) {
-          int lastNumber = peopleTable.getColumnCount() + 1 - PEOPLE_NON_CHOICE_COL_COUNT;
-          peopleTable.addCol(getStringForChoice(lastNumber), true);
-        }
       }
       pack();
     });
     button.setAlignmentX(Component.LEFT_ALIGNMENT);
+    lockedWhileMatching.add(button);
     return button;
   }
 
-  private JPanel setStandardMargins(JPanel panel) {
-    panel.setBorder(new EmptyBorder(10, 10, 10, 10));
-    return panel;
+  /**
+   * Starts matching in the background with the current value function and strategy. Editing, loading and saving
+   * are locked until it finishes, so the worker has the model to itself.
+   */
+  private void startMatching() {
+    for(JTable table : new JTable[]{itemTable, peopleTable}) {
+      if (table.isEditing()) {
+        table.getCellEditor().stopCellEditing();
+      }
+    }
+    model.setValueFunc(valueFuncPane.getValueFunc());
+    model.setMatchingStrategy((MatchingStrategy) strategyComboBox.getSelectedItem());
+    setMatchingLocked(true);
+    matchingProgressLabel.setText("Matching...");
+    matchWorker = new MatchWorker(1000L * (Integer)timeLimitSpinner.getValue());
+    matchWorker.execute();
   }
 
-  private static String getStringForChoice(int choice) {
-    if (choice <= 0) throw new IllegalArgumentException();
-
-    if (choice / 10 == 1) return choice + "th";
-    if (choice % 10 == 1) return choice + "st";
-    if (choice % 10 == 2) return choice + "nd";
-    if (choice % 10 == 3) return choice + "rd";
-    return choice + "th";
+  private void setMatchingLocked(boolean locked) {
+    for(JComponent c : lockedWhileMatching) {
+      c.setEnabled(! locked);
+    }
+    stopMatchButton.setEnabled(locked);
   }
 
-  private void updateModel() {
-    model.clear();
-
-    for(int r = 0; r < itemTable.getRowCount(); r++) {
-      Object nameObj = itemTable.getModel().getValueAt(r,NAME_COL);
-      if (nameObj != null) {
-        Object capObj = itemTable.getModel().getValueAt(r, CAPACITY_COL);
-        int capacity = 1;
-        if (capObj != null) {
-          try{
-            capacity = Integer.parseInt(capObj.toString());
-          }catch(NumberFormatException ex) {}
-        }
-        model.createItem(nameObj.toString(), capacity);
-      }
+  /**
+   * Runs model.match() off the event thread, stopping when asked to or when the time limit runs out.
+   * The result is picked up on the event thread in done(), after get() has made it visible there.
+   */
+  private class MatchWorker extends SwingWorker<Matching<Person, Copyable<Item>>, String> implements MatchMonitor {
+
+    private final long deadline;
+    private volatile boolean stopRequested;
+
+    MatchWorker(long timeLimitMs) {
+      deadline = timeLimitMs <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeLimitMs;
     }
-    for(int r = 0; r < peopleTable.getRowCount(); r++) {
-      Object nameObj = peopleTable.getModel().getValueAt(r, NAME_COL);
-      if (nameObj != null) {
-        Object priorityObj = peopleTable.getModel().getValueAt(r,PRIORITY_COL);
-        int priority = 0;
-        if (priorityObj != null) {
-          try {
-            priority = Integer.parseInt(priorityObj.toString());
-          } catch (NumberFormatException ex) {
-          }
-        }
 
-        List<String> prefs = new ArrayList<>();
+    void requestStop() {
+      stopRequested = true;
+    }
 
-        for (int c = PEOPLE_NON_CHOICE_COL_COUNT; c < peopleTable.getColumnCount(); c++) {
-          Object prefObj = peopleTable.getModel().getValueAt(r, c);
-          if (prefObj != null && !prefObj.equals("") && !prefObj.equals(NO_CHOICE_STRING)) {
-            prefs.add(prefObj.toString());
-          }
-        }
-        model.createPerson(nameObj.toString(), priority, prefs);
+    @Override
+    protected Matching<Person, Copyable<Item>> doInBackground() {
+      return model.match(this);
+    }
+
+    @Override
+    public boolean progress(int matched, int augmentations, double score) {
+      publish(formatMatchingProgress(matched, augmentations, score));
+      return ! stopRequested && System.currentTimeMillis() < deadline;
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+      if (matchWorker == this) {
+        matchingProgressLabel.setText(chunks.get(chunks.size() - 1));
       }
     }
-    //Update item choices in table
-    List<String> itemNames = new ArrayList<>();
-    itemNames.add(NO_CHOICE_STRING);
-    for(Item i : model.getItems()){
-      itemNames.add(i.id());
+
+    /** Shows the matching, or if the solver threw, no matching and a dialog with the cause. */
+    @Override
+    protected void done() {
+      Throwable failure = null;
+      try {
+        get();
+      } catch (InterruptedException e) {
+        failure = e;
+      } catch (ExecutionException e) {
+        failure = e.getCause() == null ? e : e.getCause();
+      }
+      if (failure != null) {
+        failure.printStackTrace();
+        model.clearMatching();
+      }
+      matchWorker = null;
+      setMatchingLocked(false);
+      updateMatching();
+      if (failure != null) {
+        JOptionPane.showMessageDialog(GUI.this, "Could not match: " + failure,
+            "Match Failed", JOptionPane.ERROR_MESSAGE);
+      }
     }
-    //List<Integer> cols = IntStream.range(PEOPLE_NON_CHOICE_COL_COUNT, peopleTable.getColumnCount()).mapToObj(Integer::valueOf).collect(Collectors.toList());
-    //peopleTable.setComboBoxes(cols, itemNames);
+  }
+
+  private JPanel setStandardMargins(JPanel panel) {
+    panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+    return panel;
+  }
 
+  private void afterModelEdit() {
     if (clearMatchingOnEdit) {
       model.clearMatching();
       updateMatching();
@@ -340,82 +399,94 @@ public class GUI extends JFrame {
   }
 
   private void updateMatching() {
-    long timeOnMatchingFinish = System.currentTimeMillis();
     clearMatchingOnEdit = false;
     model.setValueFunc(valueFuncPane.getValueFunc());
-    Matching<Person, Copyable<Item>> mostRecentMatching = model.getMatching();
-
-    boolean[][] highlighted = new boolean[peopleTable.getRowCount()][peopleTable.getColumnCount()];
-    for(int r = 0; r < peopleTable.getRowCount(); r++) {
-      Object nameObj = peopleTable.getModel().getValueAt(r,0);
-      if (nameObj != null && ! nameObj.equals("")) {
-        Person p = model.getPerson(nameObj.toString());
-        for (int c = PEOPLE_NON_CHOICE_COL_COUNT; c < peopleTable.getColumnCount(); c++) {
-          Object itemObj = peopleTable.getModel().getValueAt(r,c);
-          if (itemObj != null) {
-            highlighted[r][c] = mostRecentMatching != null && mostRecentMatching.isMatched(p) && mostRecentMatching.getMatchedB(p).get().id().equals(itemObj.toString());
-          }
-        }
-        peopleTable.setValueAt(p.getPriority(),r,1);
-      }
-    }
-    peopleTable.setCellHighlight(highlighted);
-
-    for(int r = 0; r < itemTable.getRowCount(); r++) {
-      Object itemObj = itemTable.getValueAt(r,0);
-      if (itemObj != null) {
-        Item item = model.getItem(itemObj.toString());
-        if (item != null) {
-          int count = 0;
-          if (mostRecentMatching != null) {
-            for (Copyable<Item> c : mostRecentMatching.getMatchedB()) {
-              if (item.equals(c.get())) {
-                count++;
-              }
-            }
-          }
-          itemTable.setValueAt(item._2, r,1);
-          itemTable.setValueAt(count, r, 2);
-        }
-      }
+    MatchingResult mostRecentMatching = model.getMatchingResult();
+
+    // Everything written back comes from the model, so the listeners have nothing to do.
+    boolean wasSuppressed = supressModelUpdateListener;
+    supressModelUpdateListener = true;
+    peopleTable.beginBatch();
+    itemTable.beginBatch();
+    try {
+      writeBackMatching(model, shownMatching, mostRecentMatching, itemTable, peopleTable);
+      shownMatching = mostRecentMatching;
+    } finally {
+      peopleTable.commitBatch();
+      itemTable.commitBatch();
+      supressModelUpdateListener = wasSuppressed;
     }
 
+    if (mostRecentMatching != null && ! model.isMatchingComplete()) {
+      matchingProgressLabel.setText("Stopped early, showing the best matching found so far");
+    } else {
+      matchingProgressLabel.setText("");
+    }
     if (mostRecentMatching == null) {
       matchingTimeLabel.setText(formatMatchingTime(-1));
       matchingCompletenessLabel.setText(formatMatchingCompleteness(-1));
       matchingScoreLabel.setText(formatMatchingScore(-1, 1));
     } else {
-      matchingTimeLabel.setText(formatMatchingTime(timeOnMatchingFinish - timeOnStartMatching));
+      MatchStats stats = model.getLastMatchStats();
+      matchingTimeLabel.setText(formatMatchingTime(stats == null ? -1 : stats.getTotalNanos() / 1000000));
       matchingCompletenessLabel.setText(formatMatchingCompleteness(model.getMatchedPercentage()));
       matchingScoreLabel.setText(formatMatchingScore(model.getMatchingScore(), model.getMaxScore()));
     }
 
-    repaint();
     clearMatchingOnEdit = true;
   }
 
-  private static interface HasExtension {
-    public String getExtension();
-  }
-
-  private static class TextFileFilter extends FileFilter implements HasExtension {
-
-    @Override
-    public boolean accept(File f) {
-      return f != null && f.isDirectory();
+  /**
+   * Shows the matching in the tables, in place of the one shown so far (null if none): highlights
+   * the assigned choice of each person, and repaints the enrollment of each item. Only the people
+   * and items whose assignment or enrollment differs between the two are touched, by one lookup
+   * each in the MatchingResults, so matching again without edits repaints nothing.
+   */
+  static void writeBackMatching(APPModel model, MatchingResult shown, MatchingResult result,
+                                ExpandingJTable itemTable, ExpandingJTable peopleTable) {
+    PeopleTableModel peopleTableModel = (PeopleTableModel) peopleTable.getModel();
+    int people = Math.min(peopleTable.getRowCount(), model.getPeopleSize());
+    for(int r = 0; r < peopleTable.getRowCount(); r++) {
+      if (r >= people || result == null) {
+        peopleTable.setHighlightedColumn(r, -1);
+        continue;
+      }
+      String name = model.getPerson(r).getName();
+      Item assigned = getAssignedItem(result, name);
+      if (shown == null || ! Objects.equals(assigned, getAssignedItem(shown, name))) {
+        peopleTable.setHighlightedColumn(r, assigned == null ? -1 : peopleTableModel.getChoiceColumn(r, assigned.id()));
+      }
     }
 
-    @Override
-    public String getDescription() {
-      return "Text (*.txt)";
+    ItemTableModel itemTableModel = (ItemTableModel) itemTable.getModel();
+    for(int r = 0; r < Math.min(itemTable.getRowCount(), model.getItemsSize()); r++) {
+      String name = model.getItem(r).id();
+      if (getEnrollment(shown, name) != getEnrollment(result, name)) {
+        itemTableModel.cellChanged(r, ItemTableModel.ENROLLMENT_COL);
+      }
     }
+  }
 
-    public String getExtension() {
-      return ".txt";
-    }
+  private static Item getAssignedItem(MatchingResult result, String personName) {
+    int id = result == null ? -1 : result.personId(personName);
+    return id == -1 ? null : result.getAssignedItem(id);
+  }
+
+  private static int getEnrollment(MatchingResult result, String itemName) {
+    int id = result == null ? -1 : result.itemId(itemName);
+    return id == -1 ? 0 : result.getEnrollment(id);
   }
 
-  private static class CSVFileFilter extends FileFilter implements HasExtension {
+  /** Offers one format of MatchingExporter in the "Save Matching..." dialog. */
+  private static class MatchingFileFilter extends FileFilter {
+
+    private final MatchingExporter.Format format;
+    private final String description;
+
+    MatchingFileFilter(MatchingExporter.Format format, String description) {
+      this.format = format;
+      this.description = description;
+    }
 
     @Override
     public boolean accept(File f) {
@@ -424,36 +495,28 @@ public class GUI extends JFrame {
 
     @Override
     public String getDescription() {
-      return "Comma Separated Value (*.csv)";
-    }
-
-    public String getExtension() {
-      return ".csv";
+      return description + " (*" + format.getExtension() + ")";
     }
   }
 
-  private static String itemToString(Copyable<Item> c) {
-    if (c == null || c.get() == null) return "UNASSIGNED";
-    return c.get().id();
-  }
-
   private void saveData() {
     JFileChooser fileChooser = new JFileChooser();
-    fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
     fileChooser.setAcceptAllFileFilterUsed(false);
-    fileChooser.setFileFilter(new SerializedObjectFilter());
+    fileChooser.setFileFilter(new ScenarioFileFilter());
 
     int response = fileChooser.showSaveDialog(this);
     if (response == JFileChooser.APPROVE_OPTION) {
       String path = fileChooser.getSelectedFile().getAbsolutePath();
-      if (! path.endsWith(".ser")) {
-        path += ".ser";
+      if (! path.endsWith(ScenarioIO.EXTENSION)) {
+        path += ScenarioIO.EXTENSION;
       }
 
       try {
-        ObjectIO.write(model, path);
+        ScenarioIO.write(model, Paths.get(path), true);
       } catch (IOException e) {
         e.printStackTrace();
+        JOptionPane.showMessageDialog(this, "Could not save " + path + ": " + e.getMessage(),
+            "Save Failed", JOptionPane.ERROR_MESSAGE);
       }
     }
   }
@@ -462,142 +525,136 @@ public class GUI extends JFrame {
     if (model.getMatching() != null) {
       JFileChooser fileChooser = new JFileChooser();
       fileChooser.setAcceptAllFileFilterUsed(false);
-      fileChooser.setFileFilter(new TextFileFilter());
-      fileChooser.addChoosableFileFilter(new CSVFileFilter());
+      fileChooser.setFileFilter(new MatchingFileFilter(MatchingExporter.Format.TEXT, "Text"));
+      fileChooser.addChoosableFileFilter(new MatchingFileFilter(MatchingExporter.Format.CSV, "Comma Separated Value"));
+      fileChooser.addChoosableFileFilter(new MatchingFileFilter(MatchingExporter.Format.TSV, "Tab Separated Value"));
+      fileChooser.addChoosableFileFilter(new MatchingFileFilter(MatchingExporter.Format.JSON_LINES, "JSON Lines"));
+      JCheckBox extraColumns = new JCheckBox("Add rank, score and fill rate");
+      fileChooser.setAccessory(extraColumns);
 
       int response = fileChooser.showSaveDialog(this);
       if (response == JFileChooser.APPROVE_OPTION) {
-        String path = fileChooser.getSelectedFile().getAbsolutePath();
-        String extension = ((HasExtension) fileChooser.getFileFilter()).getExtension();
-        boolean isText = extension.equals(".txt");
-        File f;
-        if (path.contains(".")) {
-          f = new File(path.substring(0, path.indexOf('.')) + extension);
-        } else {
-          f = new File(path + extension);
-        }
-
-        StringBuilder data = new StringBuilder();
-        String div = isText ? "" : ",";
-
-        data.append("Name");
-        if (isText) {
-          data.append(" (Priority)\t");
-        } else {
-          data.append(div);
-          data.append("Priority");
-          data.append(div);
-        }
-        data.append("Assignment");
-        if (isText) {
-          data.append(" (Value)");
-        } else {
-          data.append(div);
-          data.append("Value");
-        }
-        data.append('\n');
-
-        for(Person p : model.getPeople()) {
-          data.append(p.getName());
-          if (isText) {
-            data.append('(');
-          } else {
-            data.append(div);
-          }
-          data.append(p.getPriority());
-          if(isText) {
-            data.append(")\t");
-          } else {
-            data.append(div);
-          }
-          data.append(itemToString(model.getMatching().getMatchedB(p)));
-          if (model.getMatching().isMatched(p)) {
-            if (isText) {
-              data.append(" (");
-              data.append(p.getPreference(model.getMatching().getMatchedB(p).get()));
-              data.append(')');
-            } else {
-              data.append(div);
-              data.append(p.getPreference(model.getMatching().getMatchedB(p).get()));
-            }
-          }
-          data.append('\n');
-        }
+        MatchingExporter.Format format = ((MatchingFileFilter) fileChooser.getFileFilter()).format;
+        Path path = withExtension(fileChooser.getSelectedFile().toPath(), format);
+        Set<MatchingExporter.Column> columns = extraColumns.isSelected() && format != MatchingExporter.Format.TEXT
+            ? EnumSet.allOf(MatchingExporter.Column.class) : EnumSet.noneOf(MatchingExporter.Column.class);
 
         try {
-          TextIO.write(f,data.toString());
-        }catch(IOException e) {
-          throw new RuntimeException(e);
+          MatchingExporter.write(model, path, format, columns);
+        } catch (IOException e) {
+          e.printStackTrace();
+          JOptionPane.showMessageDialog(this, "Could not save " + path + ": " + e.getMessage(),
+              "Save Failed", JOptionPane.ERROR_MESSAGE);
         }
       }
     }
   }
 
+  /**
+   * The given path with the extension of format, in place of the extension of any export format it
+   * already has. Other dots in the name, or in the folders above it, are left alone.
+   */
+  static Path withExtension(Path path, MatchingExporter.Format format) {
+    String name = path.getFileName().toString();
+    for(MatchingExporter.Format f : MatchingExporter.Format.values()) {
+      if (name.toLowerCase().endsWith(f.getExtension())) {
+        name = name.substring(0, name.length() - f.getExtension().length());
+        break;
+      }
+    }
+    return path.resolveSibling(name + format.getExtension());
+  }
+
+  /** Loads data saved by saveData(), or a .ser file from older versions. */
   public void load() {
     JFileChooser fileChooser = new JFileChooser();
     fileChooser.setAcceptAllFileFilterUsed(false);
-    fileChooser.setFileFilter(new SerializedObjectFilter());
+    fileChooser.setFileFilter(new ScenarioFileFilter());
+    fileChooser.addChoosableFileFilter(new SerializedObjectFilter());
 
     int response = fileChooser.showOpenDialog(this);
     if (response == JFileChooser.APPROVE_OPTION) {
-
+      File file = fileChooser.getSelectedFile();
       try {
-        updateGuiForModel(ObjectIO.read(APPModel.class, fileChooser.getSelectedFile()));
+        if (file.getName().endsWith(".ser")) {
+          updateGuiForModel(ObjectIO.read(APPModel.class, file));
+        } else {
+          updateGuiForModel(ScenarioIO.read(file.toPath()));
+        }
       } catch (IOException e) {
         e.printStackTrace();
+        JOptionPane.showMessageDialog(this, "Could not load " + file + ": " + e.getMessage(),
+            "Load Failed", JOptionPane.ERROR_MESSAGE);
       }
     }
   }
 
-  private void updateGuiForModel(APPModel model) {
+  /**
+   * Reads a CSV or TSV file of items or people into the model, then shows the result in the tables
+   * in one pass. Rows the importer rejects are listed in a dialog.
+   */
+  private void importRoster(boolean people) {
+    JFileChooser fileChooser = new JFileChooser();
+    fileChooser.setAcceptAllFileFilterUsed(false);
+    fileChooser.setFileFilter(new RosterFileFilter());
 
-    // Clear existing values
-    for(int r = 0; r < itemTable.getRowCount(); r++) {
-      for(int c = 0; c < itemTable.getColumnCount(); c++) {
-        itemTable.getModel().setValueAt(null, r,c);
-      }
-    }
-    for(int r = 0; r < peopleTable.getRowCount(); r++) {
-      for(int c = 0; c < peopleTable.getColumnCount(); c++) {
-        peopleTable.setValueAt(null, r,c);
+    int response = fileChooser.showOpenDialog(this);
+    if (response == JFileChooser.APPROVE_OPTION) {
+      Path file = fileChooser.getSelectedFile().toPath();
+      RosterImporter.Result result;
+      try {
+        result = people ? RosterImporter.importPeople(model, file) : RosterImporter.importItems(model, file);
+      } catch (IOException e) {
+        JOptionPane.showMessageDialog(this, "Could not read " + file + ": " + e.getMessage(),
+            "Import Failed", JOptionPane.ERROR_MESSAGE);
+        return;
       }
-    }
-
-    // Ensure size
-    for(int r = itemTable.getRowCount(); r < model.getItemsSize(); r++) {
-      itemTable.addRow();
-      int lastNumber = peopleTable.getColumnCount() + 1 - PEOPLE_NON_CHOICE_COL_COUNT;
-      peopleTable.addCol(getStringForChoice(lastNumber), true);
-    }
-    for(int r = peopleTable.getRowCount(); r < model.getPeopleSize(); r++) {
-      peopleTable.addRow();
-    }
+      model.clearMatching();
+      updateGuiForModel(model);
 
-    // Fill values
-    int r = 0;
-    for(Item i : model.getItems()) {
-      itemTable.setValueAt(i.id(), r, NAME_COL);
-      itemTable.setValueAt(i._2, r, CAPACITY_COL);
-      r++;
+      if (result.getErrorCount() > 0) {
+        StringBuilder message = new StringBuilder(result.toString());
+        for(RosterImporter.RowError error : result.getErrors()) {
+          message.append('\n').append(error);
+        }
+        if (result.getErrorCount() > result.getErrors().size()) {
+          message.append("\n...");
+        }
+        JTextArea text = new JTextArea(message.toString(), 15, 60);
+        text.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(text), "Import", JOptionPane.WARNING_MESSAGE);
+      }
     }
+  }
 
-    r = 0;
-    for(Person p : model.getPeople()) {
-      peopleTable.setValueAt(p.getName(), r, NAME_COL);
-      peopleTable.setValueAt(p.getPriority(), r, PRIORITY_COL);
-
-      int c = PEOPLE_NON_CHOICE_COL_COUNT;
-      for(Item i : p.getPreferencesInOrder()) {
-        peopleTable.setValueAt(i.id(), r, c);
-        c++;
-      }
-      r++;
+  /**
+   * Shows the given model in the tables, which becomes the model of this GUI, together with its
+   * matching if it has one, such as a scenario saved with its matching. The listeners are
+   * suppressed, since nothing in the tables changed but the model they show.
+   */
+  private void updateGuiForModel(APPModel model) {
+    supressModelUpdateListener = true;
+    try {
+      fillTables(model, itemTable, peopleTable);
+    } finally {
+      supressModelUpdateListener = false;
     }
 
     //Set value function
     valueFuncPane.setValueFunc(model.getValueFunc().getPrefScaling(), model.getValueFunc().getPrefPower(), model.getValueFunc().getPriorityScaling());
 
     this.model = model;
+    shownMatching = null;
+    updateMatching();
+  }
+
+  /**
+   * Points the tables at the given model. Nothing is copied: the cells are read from the model when
+   * they are drawn, so this costs the same for any size of model.
+   */
+  static void fillTables(APPModel model, ExpandingJTable itemTable, ExpandingJTable peopleTable) {
+    ((ModelTableModel) itemTable.getModel()).setAppModel(model);
+    ((ModelTableModel) peopleTable.getModel()).setAppModel(model);
   }
 
   public static void main(String[] args) {
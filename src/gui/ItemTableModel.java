@@ -0,0 +1,93 @@
+package gui;
+
+import model.APPModel;
+import model.Item;
+import model.MatchingResult;
+
+/**
+ * The items of an APPModel, one per row: name, capacity and how many people the current matching
+ * put in it. A new item starts with room for one.
+ *
+ * @author Mshnik
+ */
+class ItemTableModel extends ModelTableModel {
+
+  private static final long serialVersionUID = 6332372355895415821L;
+
+  static final int NAME_COL = 0;
+  static final int CAPACITY_COL = 1;
+  static final int ENROLLMENT_COL = 2;
+
+  private static final String[] HEADERS = {"Name", "Capacity", "Enrollment"};
+
+  ItemTableModel(APPModel model, int rows) {
+    super(model, rows);
+    columnsChanged();
+  }
+
+  @Override
+  int getModelRowCount() {
+    return model.getItemsSize();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return HEADERS.length;
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    return HEADERS[column];
+  }
+
+  @Override
+  public Object getValueAt(int row, int column) {
+    if (row >= model.getItemsSize()) return null;
+    Item item = model.getItem(row);
+    switch (column) {
+      case NAME_COL:
+        return item.id();
+      case CAPACITY_COL:
+        return item._2;
+      default:
+        MatchingResult result = model.getMatchingResult();
+        int id = result == null ? -1 : result.itemId(item.id());
+        return id == -1 ? 0 : result.getEnrollment(id);
+    }
+  }
+
+  @Override
+  public boolean isCellEditable(int row, int column) {
+    return column == NAME_COL || column == CAPACITY_COL && row < model.getItemsSize();
+  }
+
+  @Override
+  public void setValueAt(Object value, int row, int column) {
+    String text = value == null ? "" : value.toString();
+    if (row >= model.getItemsSize()) {
+      if (column == NAME_COL && ! text.isEmpty() && model.getItem(text) == null) {
+        int added = model.getItemsSize();
+        model.createItem(text, 1);
+        rowsChanged(added, row);
+      }
+      return;
+    }
+
+    Item item = model.getItem(row);
+    if (column == CAPACITY_COL) {
+      int capacity = parseInt(value, 1);
+      if (capacity != item._2) {
+        model.setItemCapacity(item.id(), capacity);
+        cellChanged(row, column);
+      }
+    } else if (column == NAME_COL) {
+      if (text.isEmpty()) {
+        model.removeItem(item.id());
+        reshaped();
+      } else if (! text.equals(item.id()) && model.getItem(text) == null) {
+        model.renameItem(item.id(), text);
+        cellChanged(row, column);
+      }
+    }
+  }
+}
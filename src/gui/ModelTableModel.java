@@ -0,0 +1,151 @@
+package gui;
+
+import model.APPModel;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A table model that shows an APPModel as it is, working out each cell from the model when the table
+ * asks for it, so that nothing is copied and loading a model costs nothing per cell. Edits go straight
+ * to the model through its targeted updates. Row r is the r-th item or person in model order; rows
+ * past the end of the model are blank, and naming one adds to the model.
+ *
+ * @author Mshnik
+ */
+abstract class ModelTableModel extends AbstractTableModel implements ExpandingJTable.Model {
+
+  private static final long serialVersionUID = 2490309412535928050L;
+
+  APPModel model;
+  private int rows;
+  private int columns;
+
+  private int batchDepth;
+  private APPModel batchModel;
+  private int firstChangedRow = -1;
+  private int lastChangedRow = -1;
+  private boolean reshaped;
+
+  ModelTableModel(APPModel model, int rows) {
+    this.model = model;
+    this.rows = rows;
+  }
+
+  APPModel getAppModel() {
+    return model;
+  }
+
+  /** Shows the given model instead. Rows added so far stay. */
+  void setAppModel(APPModel model) {
+    this.model = model;
+    reshaped();
+  }
+
+  /** Number of items or people in the model, which fill the first rows. */
+  abstract int getModelRowCount();
+
+  @Override
+  public int getRowCount() {
+    return Math.max(rows, getModelRowCount());
+  }
+
+  @Override
+  public void addRow() {
+    int row = getRowCount();
+    rows = row + 1;
+    fireTableRowsInserted(row, row);
+  }
+
+  /** Reads the number in a cell that was typed or pasted, or returns otherwise if it is empty or not a number. */
+  static int parseInt(Object value, int otherwise) {
+    if (value == null) return otherwise;
+    try {
+      return Integer.parseInt(value.toString().trim());
+    } catch (NumberFormatException ex) {
+      return otherwise;
+    }
+  }
+
+  /** Tells listeners that rows first to last changed, or notes it until the batch ends. */
+  void rowsChanged(int first, int last) {
+    if (batchDepth > 0) {
+      firstChangedRow = firstChangedRow == -1 ? first : Math.min(firstChangedRow, first);
+      lastChangedRow = Math.max(lastChangedRow, last);
+    } else {
+      fireTableRowsUpdated(first, last);
+    }
+  }
+
+  /** Tells listeners that one cell changed, or notes it until the batch ends. */
+  void cellChanged(int row, int column) {
+    if (batchDepth > 0) {
+      rowsChanged(row, row);
+    } else {
+      fireTableCellUpdated(row, column);
+    }
+  }
+
+  /**
+   * Tells listeners that rows may have moved, or the number of rows or columns changed, or notes it
+   * until the batch ends.
+   */
+  void reshaped() {
+    if (batchDepth > 0) {
+      reshaped = true;
+    } else if (getColumnCount() != columns) {
+      fireTableStructureChanged();
+    } else {
+      fireTableDataChanged();
+    }
+  }
+
+  /** As reshaped(), if the number of columns is not the one listeners last heard of. */
+  void columnsChanged() {
+    if (getColumnCount() != columns) {
+      reshaped();
+    }
+  }
+
+  /**
+   * Starts a batch of edits. Until the matching commitBatch(), listeners hear nothing, and the edits
+   * reach the model in a batch of its own (see APPModel.beginBatch()). Batches nest.
+   */
+  @Override
+  public void beginBatch() {
+    if (batchDepth++ == 0) {
+      batchModel = model;
+      batchModel.beginBatch();
+    }
+  }
+
+  /**
+   * Ends a batch. When the outermost batch ends, a single event covering everything that changed is
+   * fired, or none if nothing changed. Returns whether an event was fired.
+   */
+  @Override
+  public boolean commitBatch() {
+    if (batchDepth == 0) throw new IllegalStateException("commitBatch() without beginBatch()");
+    if (--batchDepth > 0) return false;
+    batchModel.commitBatch();
+    batchModel = null;
+    boolean fired = reshaped || firstChangedRow != -1;
+    if (reshaped) {
+      reshaped = false;
+      reshaped();
+    } else if (fired) {
+      fireTableRowsUpdated(firstChangedRow, Math.min(lastChangedRow, getRowCount() - 1));
+    }
+    firstChangedRow = -1;
+    lastChangedRow = -1;
+    return fired;
+  }
+
+  @Override
+  public void fireTableChanged(TableModelEvent e) {
+    if (e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+      columns = getColumnCount();
+    }
+    super.fireTableChanged(e);
+  }
+}
@@ -0,0 +1,190 @@
+package gui;
+
+import model.APPModel;
+import model.Item;
+import model.Person;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The people of an APPModel, one per row: name, priority, then their choices best first, one column
+ * per row of the item table. Choices are kept without gaps or repeats: clearing one moves the later
+ * ones up, and choosing an item again moves it to the new place. A new person starts with priority 0
+ * and no choices.
+ *
+ * @author Mshnik
+ */
+class PeopleTableModel extends ModelTableModel {
+
+  private static final long serialVersionUID = 5398132708245135075L;
+
+  static final int NAME_COL = 0;
+  static final int PRIORITY_COL = 1;
+  static final int NON_CHOICE_COL_COUNT = 2;
+
+  static final String NO_CHOICE_STRING = "----";
+
+  private final ItemTableModel items;
+
+  /** The choices of the person last asked for, best first, as tables ask for a row at a time. */
+  private Person rankedPerson;
+  private List<Item> ranked;
+
+  PeopleTableModel(APPModel model, ItemTableModel items, int rows) {
+    super(model, rows);
+    this.items = items;
+    items.addTableModelListener((e) -> {
+      rankedPerson = null;
+      columnsChanged();
+    });
+    columnsChanged();
+  }
+
+  static String getStringForChoice(int choice) {
+    if (choice <= 0) throw new IllegalArgumentException();
+
+    if (choice / 10 == 1) return choice + "th";
+    if (choice % 10 == 1) return choice + "st";
+    if (choice % 10 == 2) return choice + "nd";
+    if (choice % 10 == 3) return choice + "rd";
+    return choice + "th";
+  }
+
+  @Override
+  int getModelRowCount() {
+    return model.getPeopleSize();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return NON_CHOICE_COL_COUNT + items.getRowCount();
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    if (column == NAME_COL) return "Name";
+    if (column == PRIORITY_COL) return "Priority";
+    return getStringForChoice(column - NON_CHOICE_COL_COUNT + 1);
+  }
+
+  /** The choices of the person in the given row, best first. */
+  List<Item> getChoices(int row) {
+    Person p = model.getPerson(row);
+    if (p != rankedPerson) {
+      List<Map.Entry<Item, Integer>> prefs = new ArrayList<>(p.getPreferences().entrySet());
+      prefs.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+      ranked = new ArrayList<>(prefs.size());
+      for(Map.Entry<Item, Integer> pref : prefs) {
+        ranked.add(pref.getKey());
+      }
+      rankedPerson = p;
+    }
+    return Collections.unmodifiableList(ranked);
+  }
+
+  /**
+   * The column showing the named choice of the person in the given row, or -1 if it is not one of
+   * theirs. Counts the choices ahead of it in the order of getChoices(row), without sorting them.
+   */
+  int getChoiceColumn(int row, String itemName) {
+    Map<Item, Integer> prefs = model.getPerson(row).getPreferences();
+    Integer value = null;
+    int tiedBefore = 0;
+    for(Map.Entry<Item, Integer> pref : prefs.entrySet()) {
+      if (pref.getKey().id().equals(itemName)) {
+        value = pref.getValue();
+        break;
+      }
+      tiedBefore++;
+    }
+    if (value == null) return -1;
+    int ahead = 0;
+    int k = 0;
+    for(int v : prefs.values()) {
+      if (v > value || v == value && k < tiedBefore) ahead++;
+      k++;
+    }
+    return NON_CHOICE_COL_COUNT + ahead;
+  }
+
+  @Override
+  public Object getValueAt(int row, int column) {
+    if (row >= model.getPeopleSize()) return null;
+    if (column == NAME_COL) return model.getPerson(row).getName();
+    if (column == PRIORITY_COL) return model.getPerson(row).getPriority();
+    List<Item> choices = getChoices(row);
+    int choice = column - NON_CHOICE_COL_COUNT;
+    return choice < choices.size() ? choices.get(choice).id() : null;
+  }
+
+  @Override
+  public boolean isCellEditable(int row, int column) {
+    return column == NAME_COL || row < model.getPeopleSize();
+  }
+
+  @Override
+  public void setValueAt(Object value, int row, int column) {
+    String text = value == null ? "" : value.toString();
+    if (row >= model.getPeopleSize()) {
+      if (column == NAME_COL && ! text.isEmpty() && model.getPerson(text) == null) {
+        int added = model.getPeopleSize();
+        model.createPerson(text, 0, Collections.emptyList());
+        rowsChanged(added, row);
+      }
+      return;
+    }
+
+    Person p = model.getPerson(row);
+    if (column == NAME_COL) {
+      if (text.isEmpty()) {
+        model.removePerson(p.getName());
+        reshaped();
+      } else if (! text.equals(p.getName()) && model.getPerson(text) == null) {
+        model.renamePerson(p.getName(), text);
+        cellChanged(row, column);
+      }
+      return;
+    }
+
+    List<String> choices = new ArrayList<>();
+    for(Item i : getChoices(row)) {
+      if (model.getItem(i.id()) != null) {
+        choices.add(i.id());
+      }
+    }
+    int priority = p.getPriority();
+    if (column == PRIORITY_COL) {
+      priority = parseInt(value, 0);
+    } else {
+      int choice = column - NON_CHOICE_COL_COUNT;
+      if (text.isEmpty() || text.equals(NO_CHOICE_STRING)) {
+        if (choice < choices.size()) {
+          choices.remove(choice);
+        }
+      } else if (model.getItem(text) != null) {
+        int old = choices.indexOf(text);
+        if (choice < choices.size()) {
+          choices.set(choice, text);
+        } else {
+          choices.add(text);
+        }
+        if (old != -1 && old != choice) {
+          choices.remove(old);
+        }
+      }
+    }
+    model.updatePerson(p.getName(), priority, choices);
+    if (model.getPerson(row) != p) {
+      rowsChanged(row, row);
+    }
+  }
+
+  @Override
+  void setAppModel(APPModel model) {
+    rankedPerson = null;
+    super.setAppModel(model);
+  }
+}
@@ -0,0 +1,21 @@
+package gui;
+
+import javax.swing.filechooser.FileFilter;
+import java.io.File;
+
+/**
+ * @author Mshnik
+ */
+public class RosterFileFilter extends FileFilter {
+
+  @Override
+  public boolean accept(File f) {
+    String name = f.getName().toLowerCase();
+    return f.isDirectory() || name.endsWith(".csv") || name.endsWith(".tsv") || name.endsWith(".txt");
+  }
+
+  @Override
+  public String getDescription() {
+    return "Spreadsheet Data *.csv, *.tsv, *.txt";
+  }
+}
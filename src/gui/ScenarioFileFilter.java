@@ -0,0 +1,22 @@
+package gui;
+
+import model.ScenarioIO;
+
+import javax.swing.filechooser.FileFilter;
+import java.io.File;
+
+/**
+ * @author Mshnik
+ */
+public class ScenarioFileFilter extends FileFilter {
+
+  @Override
+  public boolean accept(File f) {
+    return f.isDirectory() || f.getName().endsWith(ScenarioIO.EXTENSION);
+  }
+
+  @Override
+  public String getDescription() {
+    return "Matcher Data *" + ScenarioIO.EXTENSION;
+  }
+}
@@ -2,7 +2,6 @@ package model;
 
 import common.Copyable;
 import common.types.Tuple2;
-import graph.Algorithm;
 import graph.matching.Matching;
 
 import java.io.IOException;
@@ -10,22 +9,37 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * @author Mshnik
  */
 public class APPModel implements Serializable {
 
+  private static final long serialVersionUID = -4447098237433522465L;
+
   private Map<String, Person> people;
   private Map<String, Item> items;
 
   private ValueFunc valueFunc;
+  private boolean exactWeights;
+  private transient MatchingStrategy strategy;
   private transient Matching<Person, Copyable<Item>> matching;
+  private transient MatchingResult result;
+  private transient boolean matchingComplete;
+  private transient CompiledProblem compiled;
+  private transient MinCostFlowMatcher solver;
+  private transient MatchStats lastMatchStats;
+  private transient int batchDepth;
+  private transient Set<String> batchItems;
+  private transient Set<String> batchPeople;
+  private transient Person[] peopleByIndex;
+  private transient Item[] itemsByIndex;
+  private transient Map<String, Integer> personIndex;
+  private transient Map<String, Integer> itemIndex;
 
   public APPModel() {
     valueFunc = ValueFunc.DEFAULT;
+    strategy = MatchingStrategy.OPTIMAL;
     people = new LinkedHashMap<>();
     items = new LinkedHashMap<>();
   }
@@ -54,26 +68,232 @@ public class APPModel implements Serializable {
     return items.get(name);
   }
 
+  /** The person at the given index in model order, without walking the people before it. */
+  public Person getPerson(int index) {
+    if (peopleByIndex == null) {
+      peopleByIndex = people.values().toArray(new Person[0]);
+      personIndex = new HashMap<>(peopleByIndex.length * 2);
+      for(int p = 0; p < peopleByIndex.length; p++) {
+        personIndex.put(peopleByIndex[p].getName(), p);
+      }
+    }
+    return peopleByIndex[index];
+  }
+
+  /** The item at the given index in model order, without walking the items before it. */
+  public Item getItem(int index) {
+    if (itemsByIndex == null) {
+      itemsByIndex = items.values().toArray(new Item[0]);
+      itemIndex = new HashMap<>(itemsByIndex.length * 2);
+      for(int j = 0; j < itemsByIndex.length; j++) {
+        itemIndex.put(itemsByIndex[j].id(), j);
+      }
+    }
+    return itemsByIndex[index];
+  }
+
   public void clear() {
     people.clear();
     items.clear();
+    invalidate();
   }
 
   public void createItem(String name, int cap) {
     items.put(name, new Item(name, cap));
+    invalidate();
   }
 
-  public void createPerson(String personName, int priority, List<String> itemPrefs) throws RuntimeException {
-    List<Item> itemPrefs2 = itemPrefs.stream().map(items::get).collect(Collectors.toList());
-    if (itemPrefs.size() != itemPrefs2.size()) {
-      throw new RuntimeException("Had unbound item name. Got " + itemPrefs + " but only found " + itemPrefs2);
+  /** Gives an item a new name, keeping its place, its capacity and everyone's choice of it. */
+  public void renameItem(String name, String newName) {
+    Item old = items.get(name);
+    if (old == null) throw new IllegalArgumentException("No item named " + name);
+    if (name.equals(newName)) return;
+    if (items.containsKey(newName)) throw new IllegalArgumentException("Already an item named " + newName);
+
+    Item item = new Item(newName, old._2);
+    Map<String, Item> renamed = new LinkedHashMap<>();
+    for(Item i : items.values()) {
+      renamed.put(i == old ? newName : i.id(), i == old ? item : i);
+    }
+    items = renamed;
+    for(Person p : people.values()) {
+      p.replaceItem(old, item);
+    }
+    invalidate();
+  }
+
+  /** Removes an item, and takes it out of the choices of everyone who chose it. */
+  public void removeItem(String name) {
+    Item old = items.remove(name);
+    if (old == null) return;
+    for(Person p : people.values()) {
+      p.removeItem(old);
     }
+    invalidate();
+  }
+
+  /**
+   * Changes the capacity of an existing item, keeping the last solution so that the next match()
+   * only repairs it. Creates the item if there is none by that name.
+   */
+  public void setItemCapacity(String name, int cap) {
+    Item old = items.get(name);
+    if (old == null) {
+      createItem(name, cap);
+      return;
+    }
+    if (old._2 == cap) return;
+
+    Item item = new Item(name, cap);
+    items.put(name, item);
+    for(Person p : people.values()) {
+      p.replaceItem(old, item);
+    }
+    if (itemsByIndex != null) {
+      itemsByIndex[itemIndex.get(name)] = item;
+    }
+    if (batchDepth > 0) {
+      batchItems.add(name);
+    } else {
+      applyItem(name);
+    }
+  }
+
+  /**
+   * The items named by itemPrefs, in order, with null for a null name, which Person.setPreferences
+   * keeps as a gap. Throws if a name is not that of an item.
+   */
+  private List<Item> itemsNamed(List<String> itemPrefs) throws RuntimeException {
+    List<Item> itemPrefs2 = new ArrayList<>(itemPrefs.size());
+    for(String name : itemPrefs) {
+      Item item = items.get(name);
+      if (item == null && name != null) {
+        throw new RuntimeException("Had unbound item name. Got " + itemPrefs + " but found no item " + name);
+      }
+      itemPrefs2.add(item);
+    }
+    return itemPrefs2;
+  }
+
+  public void createPerson(String personName, int priority, List<String> itemPrefs) throws RuntimeException {
+    List<Item> itemPrefs2 = itemsNamed(itemPrefs);
     if (! people.containsKey(personName)) {
       Person p = new Person(personName, priority).setPreferences(itemPrefs2);
       people.put(personName, p);
     } else {
       people.get(personName).setPreferences(itemPrefs2);
     }
+    invalidate();
+  }
+
+  /**
+   * Changes the priority and choices of an existing person, keeping the last solution so that the
+   * next match() only repairs it. Creates the person if there is none by that name. Throws, as
+   * createPerson does, if a choice is not the name of an item.
+   */
+  public void updatePerson(String personName, int priority, List<String> itemPrefs) throws RuntimeException {
+    Person old = people.get(personName);
+    if (old == null) {
+      createPerson(personName, priority, itemPrefs);
+      return;
+    }
+    Person p = new Person(personName, priority).setPreferences(itemsNamed(itemPrefs));
+    if (old.getPriority() == priority && old.getPreferences().equals(p.getPreferences())) return;
+
+    people.put(personName, p);
+    if (peopleByIndex != null) {
+      peopleByIndex[personIndex.get(personName)] = p;
+    }
+    if (batchDepth > 0) {
+      batchPeople.add(personName);
+    } else {
+      applyPerson(personName);
+    }
+  }
+
+  /** Gives a person a new name, keeping their place, priority and choices. */
+  public void renamePerson(String personName, String newName) {
+    Person old = people.get(personName);
+    if (old == null) throw new IllegalArgumentException("No person named " + personName);
+    if (personName.equals(newName)) return;
+    if (people.containsKey(newName)) throw new IllegalArgumentException("Already a person named " + newName);
+
+    Person person = new Person(newName, old.getPriority());
+    for(Map.Entry<Item, Integer> pref : old.getPreferences().entrySet()) {
+      person.withPref(pref.getKey(), pref.getValue());
+    }
+    Map<String, Person> renamed = new LinkedHashMap<>();
+    for(Person p : people.values()) {
+      renamed.put(p == old ? newName : p.getName(), p == old ? person : p);
+    }
+    people = renamed;
+    invalidate();
+  }
+
+  public void removePerson(String personName) {
+    if (people.remove(personName) != null) {
+      invalidate();
+    }
+  }
+
+  private void applyItem(String name) {
+    if (compiled == null) return;
+    Item item = items.get(name);
+    if (solver != null) {
+      solver.updateItem(compiled.itemId(name), item);
+    } else {
+      compiled.setItem(compiled.itemId(name), item);
+    }
+  }
+
+  private void applyPerson(String personName) {
+    if (compiled == null) return;
+    Person p = people.get(personName);
+    if (solver != null) {
+      solver.updatePerson(compiled.personId(personName), p);
+    } else {
+      compiled.setPerson(compiled.personId(personName), p);
+    }
+  }
+
+  /**
+   * Starts a batch of edits. Until the matching commitBatch(), updatePerson and setItemCapacity only
+   * change the people and items; the compiled problem and solver catch up once, when the batch ends.
+   * Batches nest.
+   */
+  public void beginBatch() {
+    if (batchDepth++ == 0) {
+      batchItems = new LinkedHashSet<>();
+      batchPeople = new LinkedHashSet<>();
+    }
+  }
+
+  /**
+   * Ends a batch. If more than a quarter of the people were touched, the next match() starts over,
+   * which is then cheaper than repairing the last solution; otherwise each edit is passed on in turn.
+   */
+  public void commitBatch() {
+    if (batchDepth == 0) throw new IllegalStateException("commitBatch() without beginBatch()");
+    if (--batchDepth == 0) {
+      applyBatch();
+      batchItems = null;
+      batchPeople = null;
+    }
+  }
+
+  private void applyBatch() {
+    if (batchItems == null) return;
+    if (compiled != null && batchItems.size() + batchPeople.size() > compiled.getPeopleCount() / 4) {
+      invalidate();
+    }
+    for(String name : batchItems) {
+      applyItem(name);
+    }
+    for(String name : batchPeople) {
+      applyPerson(name);
+    }
+    batchItems.clear();
+    batchPeople.clear();
   }
 
   public ValueFunc getValueFunc() {
@@ -81,36 +301,205 @@ public class APPModel implements Serializable {
   }
 
   public void setValueFunc(ValueFunc f) {
-    valueFunc = f;
-    if (valueFunc == null) {
-      valueFunc = ValueFunc.DEFAULT;
+    if (f == null) {
+      f = ValueFunc.DEFAULT;
+    }
+    if (! f.equals(valueFunc)) {
+      valueFunc = f;
+      if (solver != null) {
+        solver.setValueFunc(f);
+      } else {
+        invalidate();
+      }
+    }
+  }
+
+  public boolean isExactWeights() {
+    return exactWeights;
+  }
+
+  /**
+   * Weighs choices at a much finer resolution, so that values tie only if they are equal up to
+   * floating point error (see WeightTable). Off by default, since finer weights solve slower.
+   */
+  public void setExactWeights(boolean exactWeights) {
+    if (exactWeights != this.exactWeights) {
+      this.exactWeights = exactWeights;
+      invalidate();
     }
   }
 
+  public MatchingStrategy getMatchingStrategy() {
+    return strategy;
+  }
+
+  /**
+   * Sets how match() matches. A different strategy drops the current solution, so the next match()
+   * starts over. Not saved with the model; a loaded model matches with MatchingStrategy.OPTIMAL.
+   */
+  public void setMatchingStrategy(MatchingStrategy strategy) {
+    if (strategy == null) {
+      strategy = MatchingStrategy.OPTIMAL;
+    }
+    if (strategy != this.strategy) {
+      this.strategy = strategy;
+      solver = null;
+    }
+  }
+
+  private void invalidate() {
+    compiled = null;
+    solver = null;
+    peopleByIndex = null;
+    itemsByIndex = null;
+  }
+
+  /**
+   * Returns the index-based form of this model under the current ValueFunc. It is cached until the
+   * next change to the model. Edits made so far in an open batch are included.
+   */
+  public CompiledProblem compile() {
+    applyBatch();
+    if (compiled == null) {
+      compiled = CompiledProblem.compile(people.values(), items.values(), valueFunc, exactWeights);
+    }
+    return compiled;
+  }
+
+  /**
+   * Matches with getMatchingStrategy(). For the optimal strategies, that is a max-cardinality,
+   * max-value matching, and the solver is kept afterwards, so after updatePerson, setItemCapacity or
+   * setValueFunc the next call repairs the previous solution instead of solving from scratch; the
+   * result has the same size and value as a full solve. Other strategies match from scratch.
+   */
   public Matching<Person, Copyable<Item>> match() {
-    Map<Item, Integer> itemAndCount = items.values().stream().collect(Collectors.toMap(Function.identity(), (i) -> i._2));
-    matching = Algorithm.maxValueMaxMatching(people.values(), itemAndCount, (a,i) -> (int)(valueFunc.apply(a.getPreference(i), a.getPriority())*1000000));
+    return match(null);
+  }
+
+  /**
+   * As match(), reporting progress to the given monitor, which may stop the solver early. A stopped
+   * match still produces a feasible matching (isMatchingComplete() is false), and the next match()
+   * carries on from where it stopped.
+   */
+  public Matching<Person, Copyable<Item>> match(MatchMonitor monitor) {
+    MatchStats stats = new MatchStats(strategy);
+    applyBatch();
+    CompiledProblem problem = compile();
+    stats.built(problem);
+    if (! (strategy instanceof OptimalStrategy)) {
+      stats.presolved();
+      int[] matchedItem = strategy.match(problem, monitor);
+      matchingComplete = true;
+      stats.solved(matchingComplete);
+      setMatching(problem.people, problem.items, matchedItem);
+    } else {
+      if (solver == null) {
+        solver = ((OptimalStrategy) strategy).start(problem, monitor);
+      } else {
+        stats.workBefore(solver);
+      }
+      stats.presolved();
+      matchingComplete = solver.solve(monitor);
+      stats.solved(matchingComplete);
+      stats.workAfter(solver);
+      setMatching(compiled.people, compiled.items, solver.getMatchedItems());
+    }
+    stats.extracted(result.getMatched());
+    lastMatchStats = stats;
+    MatcherMetrics.get().record(stats);
     return matching;
   }
 
+  /** What the match() that found the current matching took, or null if it was not found by match(). */
+  public MatchStats getLastMatchStats() {
+    return lastMatchStats;
+  }
+
+  private void setMatching(Person[] people, Item[] items, int[] matchedItem) {
+    matching = buildMatching(people, items, matchedItem);
+    result = new MatchingResult(people, items, matchedItem);
+  }
+
+  /**
+   * Total edge weight of the matching, exact where getMatchingScore() is rounded. 0 before match(),
+   * and for strategies that are not optimal.
+   */
+  long getObjective() {
+    return solver == null ? 0 : solver.getObjective();
+  }
+
+  /** Sets the matching from saved assignments, the index of each person's item in model order or -1. */
+  void restoreMatching(int[] matchedItem, boolean complete) {
+    setMatching(people.values().toArray(new Person[0]), items.values().toArray(new Item[0]), matchedItem);
+    matchingComplete = complete;
+    lastMatchStats = null;
+  }
+
+  /**
+   * Builds the Matching shape the rest of the app expects: every seat of an item is a Copyable of
+   * that item, and each matched person is paired with one seat.
+   */
+  static Matching<Person, Copyable<Item>> buildMatching(Person[] people, Item[] items, int[] matchedItem) {
+    Matching<Person, Copyable<Item>> matching = new Matching<>();
+    matching.addAllA(Arrays.asList(people));
+    List<List<Copyable<Item>>> seats = new ArrayList<>(items.length);
+    List<Copyable<Item>> allSeats = new ArrayList<>();
+    for(Item item : items) {
+      int capacity = Math.max(0, item._2);
+      List<Copyable<Item>> itemSeats = new ArrayList<>(capacity);
+      for(int k = 0; k < capacity; k++) {
+        itemSeats.add(Copyable.of(item));
+      }
+      seats.add(itemSeats);
+      allSeats.addAll(itemSeats);
+    }
+    matching.addAllB(allSeats);
+
+    int[] used = new int[items.length];
+    for(int p = 0; p < people.length; p++) {
+      int j = matchedItem[p];
+      if (j != -1) {
+        if (used[j] == seats.get(j).size()) {
+          throw new IllegalArgumentException("More people assigned to " + items[j].id() + " than it has room for");
+        }
+        matching.match(people[p], seats.get(j).get(used[j]++));
+      }
+    }
+    return matching;
+  }
+
+  /** False if the current matching came from a match that was stopped before it finished. */
+  public boolean isMatchingComplete() {
+    return matchingComplete;
+  }
+
   public void clearMatching() {
     matching = null;
+    result = null;
+    lastMatchStats = null;
   }
 
   public Matching<Person, Copyable<Item>> getMatching() {
     return matching;
   }
 
+  /** The index of the current matching, for reading it back by person or item; null if there is none. */
+  public MatchingResult getMatchingResult() {
+    return result;
+  }
+
   public double getMatchedPercentage() {
-    if (matching == null) return 0;
-    return ((double)matching.getMatchedA().size())/matching.totalSizeA();
+    if (result == null || result.getPeopleCount() == 0) return 0;
+    return ((double) result.getMatched()) / result.getPeopleCount();
   }
 
   public double getMatchingScore() {
-    if (matching == null) return 0;
+    if (result == null) return 0;
     double score = 0;
-    for(Person p : matching.getMatchedA()) {
-      score += valueFunc.apply(p.getPreference(matching.getMatchedB(p).get()), p.getPriority());
+    for(int p = 0; p < result.getPeopleCount(); p++) {
+      if (result.getMatchedItem(p) != -1) {
+        score += valueFunc.apply(result.getValue(p), result.getPerson(p).getPriority());
+      }
     }
     return score;
   }
@@ -126,6 +515,7 @@ public class APPModel implements Serializable {
 
   private void readObject(ObjectInputStream aInputStream) throws ClassNotFoundException, IOException {
     aInputStream.defaultReadObject();
+    strategy = MatchingStrategy.OPTIMAL;
   }
 
   private void writeObject(ObjectOutputStream aOutputStream) throws IOException {
@@ -0,0 +1,440 @@
+package model;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Max-value assignment of people to items by a forward auction with epsilon scaling, used to give
+ * MinCostFlowMatcher a start that is already nearly optimal.
+ *
+ * Every seat of an item is an object with its own price, and the seats of an item form a min-heap
+ * by price, so an item costs what its cheapest seat does. An unassigned person bids for the choice
+ * with the best value less price, raising the price of its cheapest seat by the margin over the
+ * person's next best option plus epsilon, and takes the seat from whoever held it. Staying
+ * unassigned is always an option worth 0, so nobody bids more than a choice is worth. An item only
+ * gets as many seats as there are people who chose it, since no more can ever be filled.
+ *
+ * Prices only go up in a forward auction, so a seat that went for too much in an early, coarse phase
+ * may find no taker later and sit empty at a price nobody pays. Once nobody is left to bid, each
+ * such seat therefore gets a reverse step: among the people who chose its item, the one who gains
+ * most from it (value less current profit) takes it, at a price that leaves everyone else within
+ * epsilon, or the price drops to 0 if nobody gains. All empty seats of an item are done in one pass
+ * over the people who chose it. The people may leave seats empty elsewhere, which get their own
+ * reverse steps. A phase ends with everyone within epsilon of their best option
+ * and every empty seat free. Epsilon is then divided by EPSILON_FACTOR and the assignment rebuilt
+ * from the prices reached so far, down to a last phase at LAST_EPSILON_DIVISOR times finer than the
+ * largest weight. Going on to epsilon = 1 is not worth it: weights have a few distinct values (a
+ * handful of ranks and priorities), so fine phases are long price wars between people tied on an
+ * item. Instead the solve hands over: MinCostFlowMatcher.start takes the assignment, with the prices
+ * as item potentials, fixes the edges that are off by at most epsilon and augments anyone the auction
+ * left out, so the result is the same max-cardinality, max-value matching it finds from scratch.
+ *
+ * In parallel mode every unassigned person bids at once against the same prices (Jacobi rather than
+ * Gauss-Seidel bidding), and the bids are then placed one at a time; a bid that no longer beats
+ * the price of its item is made again next round. Reverse steps are always sequential.
+ *
+ * @author Mshnik
+ */
+class AuctionMatcher {
+
+  /** Epsilon is divided by this between phases. */
+  private static final int EPSILON_FACTOR = 5;
+  /** The last phase has epsilon = the largest weight / this. */
+  private static final int LAST_EPSILON_DIVISOR = 1000;
+  /** Fewest bidders a round needs to bid in parallel. */
+  private static final int PARALLEL_THRESHOLD = 2048;
+
+  private final PreferenceGraph graph;
+  private final boolean parallel;
+  private final int peopleCount;
+  private final int itemCount;
+
+  private final int[] seatStart;
+  private final long[] seatPrice;
+  private final int[] seatHolder;
+  private final int[] assignedEdge;
+  private final int[] seatOf;
+  private final long[] profit;
+
+  private final int[] chooserStart;
+  private final int[] chooser;
+  private final int[] chooserEdge;
+  private final int[] reverseQueue;
+  private final boolean[] isQueued;
+  private int reverseQueueSize;
+  private final long[] topGain;
+  private final int[] topChooser;
+
+  private final int[] bidEdge;
+  private final long[] bidAmount;
+  private int[] queue;
+  private int[] nextQueue;
+  private int queueSize;
+
+  private int bids;
+  private int reverseSteps;
+  private int phases;
+
+  AuctionMatcher(PreferenceGraph graph, boolean parallel) {
+    this.graph = graph;
+    this.parallel = parallel;
+    peopleCount = graph.getPeopleCount();
+    itemCount = graph.getItemCount();
+
+    int[] choosers = new int[itemCount];
+    for(int p = 0; p < peopleCount; p++) {
+      for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+        int j = graph.edgeItem(e);
+        if (j != -1) choosers[j]++;
+      }
+    }
+    seatStart = new int[itemCount + 1];
+    chooserStart = new int[itemCount + 1];
+    for(int j = 0; j < itemCount; j++) {
+      seatStart[j + 1] = seatStart[j] + Math.max(0, Math.min(graph.capacity(j), choosers[j]));
+      chooserStart[j + 1] = chooserStart[j] + choosers[j];
+    }
+    chooser = new int[chooserStart[itemCount]];
+    chooserEdge = new int[chooser.length];
+    for(int p = 0; p < peopleCount; p++) {
+      for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+        int j = graph.edgeItem(e);
+        if (j != -1) {
+          int k = chooserStart[j + 1] - choosers[j]--;
+          chooser[k] = p;
+          chooserEdge[k] = e;
+        }
+      }
+    }
+    int mostSeats = 0;
+    for(int j = 0; j < itemCount; j++) {
+      mostSeats = Math.max(mostSeats, seatStart[j + 1] - seatStart[j]);
+    }
+    topGain = new long[mostSeats + 1];
+    topChooser = new int[mostSeats + 1];
+    reverseQueue = new int[itemCount];
+    isQueued = new boolean[itemCount];
+    seatPrice = new long[seatStart[itemCount]];
+    seatHolder = new int[seatPrice.length];
+    Arrays.fill(seatHolder, -1);
+    assignedEdge = new int[peopleCount];
+    Arrays.fill(assignedEdge, -1);
+    seatOf = new int[peopleCount];
+    profit = new long[peopleCount];
+    bidEdge = new int[peopleCount];
+    bidAmount = new long[peopleCount];
+    queue = new int[peopleCount];
+    nextQueue = new int[peopleCount];
+  }
+
+  /** Runs every phase, down to epsilon = the largest weight / LAST_EPSILON_DIVISOR. */
+  void solve() {
+    long largest = 0;
+    for(int p = 0; p < peopleCount; p++) {
+      for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+        if (graph.edgeItem(e) != -1) {
+          largest = Math.max(largest, graph.edgeWeight(p, e));
+        }
+      }
+    }
+    long last = Math.max(1, largest / LAST_EPSILON_DIVISOR);
+    long epsilon = Math.max(last, largest / EPSILON_FACTOR);
+    while (true) {
+      phase(epsilon);
+      if (epsilon == last) return;
+      epsilon = Math.max(last, epsilon / EPSILON_FACTOR);
+    }
+  }
+
+  /** The edge each person was assigned by, or -1. */
+  int[] getAssignedEdges() {
+    return assignedEdge;
+  }
+
+  /** What the cheapest seat of item j costs. */
+  long getPrice(int j) {
+    return seatStart[j] == seatStart[j + 1] ? 0 : seatPrice[seatStart[j]];
+  }
+
+  long[] getPrices() {
+    long[] prices = new long[itemCount];
+    for(int j = 0; j < itemCount; j++) {
+      prices[j] = getPrice(j);
+    }
+    return prices;
+  }
+
+  int getBids() {
+    return bids;
+  }
+
+  int getReverseSteps() {
+    return reverseSteps;
+  }
+
+  int getPhases() {
+    return phases;
+  }
+
+  /** Assigns everyone again from the current prices, to within epsilon of their best option. */
+  private void phase(long epsilon) {
+    phases++;
+    queueSize = 0;
+    for(int p = peopleCount - 1; p >= 0; p--) {
+      if (graph.edgeStart(p) < graph.edgeEnd(p) && bestValue(p) - epsilon > profit[p]) {
+        if (assignedEdge[p] != -1) release(p);
+        queue[queueSize++] = p;
+      }
+    }
+
+    if (parallel) {
+      forwardInParallel(epsilon);
+    } else {
+      while (queueSize > 0) {
+        int p = queue[--queueSize];
+        bid(p, epsilon);
+        if (bidEdge[p] != -1) {
+          int displaced = place(p);
+          if (displaced != -1) queue[queueSize++] = displaced;
+        }
+      }
+    }
+
+    for(int j = 0; j < itemCount; j++) {
+      enqueueReverse(j);
+    }
+    while (reverseQueueSize > 0) {
+      int j = reverseQueue[--reverseQueueSize];
+      isQueued[j] = false;
+      if (reverse(j, epsilon)) heapify(j);
+    }
+  }
+
+  /** Rounds of bids by every unassigned person at once, until nobody is left to bid. */
+  private void forwardInParallel(long epsilon) {
+    while (queueSize > 0) {
+      int[] round = queue;
+      if (queueSize >= PARALLEL_THRESHOLD) {
+        IntStream.range(0, queueSize).parallel().forEach(k -> bid(round[k], epsilon));
+      } else {
+        for(int k = 0; k < queueSize; k++) {
+          bid(round[k], epsilon);
+        }
+      }
+      int nextQueueSize = 0;
+      for(int k = 0; k < queueSize; k++) {
+        int p = round[k];
+        if (bidEdge[p] == -1) continue;
+        if (bidAmount[p] > getPrice(graph.edgeItem(bidEdge[p]))) {
+          int displaced = place(p);
+          if (displaced != -1) nextQueue[nextQueueSize++] = displaced;
+        } else {
+          nextQueue[nextQueueSize++] = p;
+        }
+      }
+      queue = nextQueue;
+      nextQueue = round;
+      queueSize = nextQueueSize;
+    }
+  }
+
+  /**
+   * Works out the bid of person p at the current prices into bidEdge[p] and bidAmount[p]. bidEdge[p]
+   * is -1 if p is better off unassigned. Only reads the prices, so people may bid concurrently.
+   */
+  private void bid(int p, long epsilon) {
+    long best = Long.MIN_VALUE;
+    long second = 0;
+    int bestEdge = -1;
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      int j = graph.edgeItem(e);
+      if (j == -1 || seatStart[j] == seatStart[j + 1]) continue;
+      long value = graph.edgeWeight(p, e) - seatPrice[seatStart[j]];
+      if (value > best) {
+        if (bestEdge != -1) second = Math.max(second, best);
+        best = value;
+        bestEdge = e;
+      } else {
+        second = Math.max(second, value);
+      }
+    }
+    if (bestEdge == -1 || best <= 0) {
+      bidEdge[p] = -1;
+      return;
+    }
+    int j = graph.edgeItem(bestEdge);
+    int root = seatStart[j];
+    if (root + 1 < seatStart[j + 1]) {
+      long nextSeat = seatPrice[root + 1];
+      if (root + 2 < seatStart[j + 1]) nextSeat = Math.min(nextSeat, seatPrice[root + 2]);
+      second = Math.max(second, graph.edgeWeight(p, bestEdge) - nextSeat);
+    }
+    bidEdge[p] = bestEdge;
+    bidAmount[p] = seatPrice[root] + best - second + epsilon;
+  }
+
+  /** The best value less price person p could get at the current prices, or 0 if it has none better. */
+  private long bestValue(int p) {
+    long best = 0;
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      int j = graph.edgeItem(e);
+      if (j == -1 || seatStart[j] == seatStart[j + 1]) continue;
+      best = Math.max(best, graph.edgeWeight(p, e) - seatPrice[seatStart[j]]);
+    }
+    return best;
+  }
+
+  /** Unassigns person p, leaving its seat empty at the price it paid. */
+  private void release(int p) {
+    seatHolder[seatOf[p]] = -1;
+    assignedEdge[p] = -1;
+    profit[p] = 0;
+  }
+
+  private void enqueueReverse(int j) {
+    if (! isQueued[j]) {
+      isQueued[j] = true;
+      reverseQueue[reverseQueueSize++] = j;
+    }
+  }
+
+  /**
+   * Lowers the prices of the empty seats of item j to what the people who gain most from them will
+   * pay, and gives them the seats. With m empty seats, the m people who gain most take them at the
+   * gain of the next best less epsilon, so nobody else gains more than epsilon from any of them. Seats
+   * left over when too few people gain from them are free. Returns false if there were no such seats.
+   */
+  private boolean reverse(int j, long epsilon) {
+    int empty = 0;
+    for(int s = seatStart[j]; s < seatStart[j + 1]; s++) {
+      if (seatHolder[s] == -1 && seatPrice[s] > 0) empty++;
+    }
+    if (empty == 0) return false;
+    reverseSteps += empty;
+
+    // Min-heap of the empty + 1 largest nonnegative gains.
+    int size = 0;
+    for(int k = chooserStart[j]; k < chooserStart[j + 1]; k++) {
+      int p = chooser[k];
+      if (assignedEdge[p] == chooserEdge[k]) continue;
+      long gain = graph.edgeWeight(p, chooserEdge[k]) - profit[p];
+      if (gain < 0) continue;
+      if (size <= empty) {
+        topGain[size] = gain;
+        topChooser[size] = k;
+        siftUpTop(size++);
+      } else if (gain > topGain[0]) {
+        topGain[0] = gain;
+        topChooser[0] = k;
+        siftDownTop(0, size);
+      }
+    }
+    // The takers are then topChooser[0 .. takers - 1].
+    long price = 0;
+    int takers = size;
+    if (size > empty) {
+      price = Math.max(0, topGain[0] - epsilon);
+      takers = empty;
+      topChooser[0] = topChooser[empty];
+    }
+    int t = 0;
+    for(int s = seatStart[j]; s < seatStart[j + 1]; s++) {
+      if (seatHolder[s] != -1 || seatPrice[s] == 0) continue;
+      if (t == takers) {
+        seatPrice[s] = 0;
+        continue;
+      }
+      int k = topChooser[t++];
+      int p = chooser[k];
+      int e = chooserEdge[k];
+      if (assignedEdge[p] != -1) {
+        enqueueReverse(graph.edgeItem(assignedEdge[p]));
+        release(p);
+      }
+      seatHolder[s] = p;
+      seatOf[p] = s;
+      seatPrice[s] = Math.min(price, seatPrice[s]);
+      assignedEdge[p] = e;
+      profit[p] = graph.edgeWeight(p, e) - seatPrice[s];
+    }
+    return true;
+  }
+
+  private void siftUpTop(int i) {
+    long gain = topGain[i];
+    int k = topChooser[i];
+    while (i > 0 && topGain[(i - 1) / 2] > gain) {
+      topGain[i] = topGain[(i - 1) / 2];
+      topChooser[i] = topChooser[(i - 1) / 2];
+      i = (i - 1) / 2;
+    }
+    topGain[i] = gain;
+    topChooser[i] = k;
+  }
+
+  private void siftDownTop(int i, int size) {
+    long gain = topGain[i];
+    int k = topChooser[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) break;
+      if (child + 1 < size && topGain[child + 1] < topGain[child]) child++;
+      if (topGain[child] >= gain) break;
+      topGain[i] = topGain[child];
+      topChooser[i] = topChooser[child];
+      i = child;
+    }
+    topGain[i] = gain;
+    topChooser[i] = k;
+  }
+
+  /** Restores the heap of item j after reverse steps changed prices anywhere in it. */
+  private void heapify(int j) {
+    for(int i = (seatStart[j + 1] - seatStart[j]) / 2 - 1; i >= 0; i--) {
+      siftDown(j, i);
+    }
+  }
+
+  /**
+   * Gives person p the cheapest seat of the item it bid for, at the price it bid. Returns whoever
+   * held the seat, who has to bid again, or -1.
+   */
+  private int place(int p) {
+    int e = bidEdge[p];
+    int j = graph.edgeItem(e);
+    int root = seatStart[j];
+    int holder = seatHolder[root];
+    if (holder != -1) {
+      assignedEdge[holder] = -1;
+      profit[holder] = 0;
+    }
+    seatHolder[root] = p;
+    seatPrice[root] = bidAmount[p];
+    assignedEdge[p] = e;
+    profit[p] = graph.edgeWeight(p, e) - bidAmount[p];
+    siftDown(j, 0);
+    bids++;
+    return holder;
+  }
+
+  /** Moves seat i of the heap of item j down after its price went up. */
+  private void siftDown(int j, int i) {
+    int start = seatStart[j];
+    int size = seatStart[j + 1] - start;
+    long price = seatPrice[start + i];
+    int holder = seatHolder[start + i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) break;
+      if (child + 1 < size && seatPrice[start + child + 1] < seatPrice[start + child]) child++;
+      if (seatPrice[start + child] >= price) break;
+      seatPrice[start + i] = seatPrice[start + child];
+      seatHolder[start + i] = seatHolder[start + child];
+      if (seatHolder[start + i] != -1) seatOf[seatHolder[start + i]] = start + i;
+      i = child;
+    }
+    seatPrice[start + i] = price;
+    seatHolder[start + i] = holder;
+    if (holder != -1) seatOf[holder] = start + i;
+  }
+}
@@ -0,0 +1,371 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command line entry point that matches a roster without the GUI, for batch jobs on headless
+ * machines. Only touches the model package, so AWT is never loaded.
+ *
+ * The items file has one "name,capacity" line per item and the people file one
+ * "name,priority,choice1,choice2,..." line per person, best choice first, in the CSV or TSV read by
+ * RosterImporter; rows it rejects are listed and left out. Alternatively --scenario takes a file
+ * saved by the GUI, which is memory-mapped and solved in place (see MappedScenario). The matching
+ * is written by MatchingExporter, to --out or to standard output: --format is csv (the default),
+ * tsv, jsonl or text, the layout of the GUI's "Save Matching..." (--text for short), and --columns
+ * adds any of rank, score and fill-rate, comma separated. Timings and memory use are printed to
+ * standard error. --exact weighs choices at the finer resolution of APPModel.setExactWeights; a
+ * scenario is weighed as it was saved.
+ * --strategy picks the MatchingStrategy (optimal, top-choices, auction, parallel-auction or
+ * serial-dictatorship); with --verify the roster is then solved again by MatchingStrategy.OPTIMAL,
+ * and it is an error if an optimal strategy found a matching of another size or value.
+ *
+ * What the match took, phase by phase (see MatchStats), is printed with the timings, and with
+ * --metrics-log it is also appended to the given file as a line of JSON, for comparing runs.
+ *
+ * With --sweep, the roster is instead solved under every combination of the given ValueFunc
+ * parameters, in parallel (see ValueFuncSweep), and the output is one CSV row per combination with
+ * its matched share, score, max score and the number of people given each choice. The grid is
+ * "prefScalings/prefPowers/priorityScalings", each a comma separated list, e.g. 1,5,10/1,2/0,1.
+ *
+ * @author Mshnik
+ */
+public class BatchMatcher {
+
+  private static final String USAGE =
+      "Usage: BatchMatcher (--items <file> --people <file> | --scenario <file>) [--out <file>]\n" +
+      "                    [--format csv|tsv|jsonl|text | --text] [--columns rank,score,fill-rate]\n" +
+      "                    [--pref-scaling <d>] [--pref-power <d>] [--priority-scaling <d>] [--exact]\n" +
+      "                    [--strategy optimal|top-choices|auction|parallel-auction|serial-dictatorship\n" +
+      "                    [--verify]] [--metrics-log <file>]\n" +
+      "                    [--sweep <d,d,...>/<d,d,...>/<d,d,...> [--threads <n>]]";
+
+  public static void main(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    boolean isExact = false;
+    boolean isVerify = false;
+    for(int i = 0; i < args.length; i++) {
+      if (args[i].equals("--text")) {
+        options.put("--format", "text");
+      } else if (args[i].equals("--exact")) {
+        isExact = true;
+      } else if (args[i].equals("--verify")) {
+        isVerify = true;
+      } else if (args[i].startsWith("--") && i + 1 < args.length) {
+        options.put(args[i], args[++i]);
+      } else {
+        exitWithUsage("Unexpected argument " + args[i]);
+      }
+    }
+    boolean isScenario = options.containsKey("--scenario");
+    if (isScenario == (options.containsKey("--items") || options.containsKey("--people"))) {
+      exitWithUsage("Give either --scenario, or --items and --people");
+    }
+    if (! isScenario && (! options.containsKey("--items") || ! options.containsKey("--people"))) {
+      exitWithUsage("Both --items and --people are required");
+    }
+    if (isScenario && (isExact || isVerify)) {
+      exitWithUsage("--exact and --verify are not supported with --scenario");
+    }
+
+    try {
+      MatchingExporter.Format format = format(options);
+      Set<MatchingExporter.Column> columns = columns(options);
+      if (options.containsKey("--metrics-log")) {
+        MatcherMetrics.get().setRunLog(Paths.get(options.get("--metrics-log")));
+      }
+      if (isScenario) {
+        runScenario(options, format, columns);
+      } else {
+        run(options, format, columns, isExact, isVerify);
+      }
+    } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static void exitWithUsage(String message) {
+    System.err.println(message);
+    System.err.println(USAGE);
+    System.exit(2);
+  }
+
+  private static ValueFunc valueFunc(Map<String, String> options, ValueFunc d) {
+    return ValueFunc.ofScalingAndPowerFactors(
+        doubleOption(options, "--pref-scaling", d.getPrefScaling()),
+        doubleOption(options, "--pref-power", d.getPrefPower()),
+        doubleOption(options, "--priority-scaling", d.getPriorityScaling()));
+  }
+
+  private static void run(Map<String, String> options, MatchingExporter.Format format,
+                          Set<MatchingExporter.Column> columns, boolean isExact, boolean isVerify)
+      throws IOException {
+    ValueFunc valueFunc = valueFunc(options, ValueFunc.DEFAULT);
+
+    long start = System.nanoTime();
+    APPModel model = new APPModel();
+    model.setValueFunc(valueFunc);
+    model.setExactWeights(isExact);
+    model.setMatchingStrategy(strategy(options));
+    String itemsPath = options.get("--items");
+    String peoplePath = options.get("--people");
+    report(itemsPath, RosterImporter.importItems(model, Paths.get(itemsPath)));
+    report(peoplePath, RosterImporter.importPeople(model, Paths.get(peoplePath)));
+    long read = System.nanoTime();
+    if (options.containsKey("--sweep")) {
+      sweep(new ValueFuncSweep(model), options, start, read);
+      return;
+    }
+
+    model.match();
+    long matched = System.nanoTime();
+
+    try (Writer w = openOutput(options)) {
+      MatchingExporter.write(model, w, format, columns);
+    }
+    long written = System.nanoTime();
+
+    System.err.println(model.getItemsSize() + " items, " + model.getPeopleSize() + " people");
+    System.err.println(valueFunc);
+    System.err.printf("Matched %.2f%% of people, score %.1f of %d%n",
+        model.getMatchedPercentage() * 100, model.getMatchingScore(), model.getMaxScore());
+    printStats(start, read, matched, written, model.getLastMatchStats());
+    System.err.println(model.getLastMatchStats());
+    if (isVerify) {
+      verify(model);
+    }
+  }
+
+  /**
+   * Solves model again from scratch, as MatchingStrategy.OPTIMAL does, failing if the model's strategy
+   * is optimal but found a matching of another size or value. Otherwise prints how much the optimum
+   * has over it.
+   */
+  private static void verify(APPModel model) {
+    MatchingStrategy strategy = model.getMatchingStrategy();
+    int matchedCount = model.getMatchingResult().getMatched();
+    CompiledProblem problem = model.compile();
+    long start = System.nanoTime();
+    MinCostFlowMatcher solver = new MinCostFlowMatcher((PreferenceGraph) problem);
+    solver.solve();
+    long matched = System.nanoTime();
+    if (! strategy.isOptimal()) {
+      System.err.printf("%s matched %d people, score %.1f; optimal matched %d, score %.1f in %d ms%n", strategy,
+          matchedCount, model.getMatchingScore(), solver.getMatchedCount(),
+          solver.getObjective() / problem.getWeightScale(), millis(start, matched));
+      return;
+    }
+    if (solver.getMatchedCount() != matchedCount || solver.getObjective() != model.getObjective()) {
+      throw new IllegalStateException(strategy + " matched " + matchedCount + " people with weight "
+          + model.getObjective() + ", optimal matched " + solver.getMatchedCount() + " with weight " + solver.getObjective());
+    }
+    System.err.printf("Verified against %s, which took %d ms%n", MatchingStrategy.OPTIMAL, millis(start, matched));
+  }
+
+  private static MatchingStrategy strategy(Map<String, String> options) {
+    String strategy = options.getOrDefault("--strategy", "optimal");
+    switch (strategy) {
+      case "optimal": return MatchingStrategy.OPTIMAL;
+      case "top-choices": return MatchingStrategy.TOP_CHOICES;
+      case "auction": return MatchingStrategy.AUCTION;
+      case "parallel-auction": return MatchingStrategy.PARALLEL_AUCTION;
+      case "serial-dictatorship": return MatchingStrategy.SERIAL_DICTATORSHIP;
+      default: throw new IllegalArgumentException(
+          "--strategy must be optimal, top-choices, auction, parallel-auction or serial-dictatorship, was " + strategy);
+    }
+  }
+
+  private static MatchingExporter.Format format(Map<String, String> options) {
+    String format = options.getOrDefault("--format", "csv");
+    switch (format) {
+      case "csv": return MatchingExporter.Format.CSV;
+      case "tsv": return MatchingExporter.Format.TSV;
+      case "jsonl": return MatchingExporter.Format.JSON_LINES;
+      case "text": return MatchingExporter.Format.TEXT;
+      default: throw new IllegalArgumentException("--format must be csv, tsv, jsonl or text, was " + format);
+    }
+  }
+
+  private static Set<MatchingExporter.Column> columns(Map<String, String> options) {
+    Set<MatchingExporter.Column> columns = EnumSet.noneOf(MatchingExporter.Column.class);
+    if (! options.containsKey("--columns")) return columns;
+    for(String column : options.get("--columns").split(",")) {
+      switch (column.trim()) {
+        case "rank": columns.add(MatchingExporter.Column.RANK); break;
+        case "score": columns.add(MatchingExporter.Column.SCORE); break;
+        case "fill-rate": columns.add(MatchingExporter.Column.FILL_RATE); break;
+        default: throw new IllegalArgumentException("--columns must list rank, score or fill-rate, had " + column);
+      }
+    }
+    return columns;
+  }
+
+  private static void runScenario(Map<String, String> options, MatchingExporter.Format format,
+                                  Set<MatchingExporter.Column> columns) throws IOException {
+    long start = System.nanoTime();
+    MappedScenario scenario = MappedScenario.open(Paths.get(options.get("--scenario")));
+    if (options.containsKey("--sweep")) {
+      sweep(new ValueFuncSweep(scenario), options, start, System.nanoTime());
+      return;
+    }
+    ValueFunc valueFunc = valueFunc(options, scenario.getValueFunc());
+    if (! valueFunc.equals(scenario.getValueFunc())) {
+      scenario = scenario.withValueFunc(valueFunc);
+    }
+    long read = System.nanoTime();
+
+    int[] matchedItem = scenario.match(strategy(options), null);
+    long matched = System.nanoTime();
+
+    try (Writer w = openOutput(options)) {
+      MatchingExporter.write(scenario, matchedItem, w, format, columns);
+    }
+    long written = System.nanoTime();
+
+    int matchedCount = 0;
+    for(int j : matchedItem) {
+      if (j != -1) matchedCount++;
+    }
+    System.err.println(scenario.getItemCount() + " items, " + scenario.getPeopleCount() + " people");
+    System.err.println(valueFunc);
+    System.err.printf("Matched %.2f%% of people, score %.1f%n",
+        matchedCount * 100.0 / Math.max(1, matchedItem.length), scenario.getMatchingScore(matchedItem));
+    printStats(start, read, matched, written, MatcherMetrics.get().getLastRun());
+    System.err.println(MatcherMetrics.get().getLastRun());
+  }
+
+  private static void sweep(ValueFuncSweep sweep, Map<String, String> options, long start, long read)
+      throws IOException {
+    String[] grid = options.get("--sweep").split("/", -1);
+    if (grid.length != 3) {
+      throw new IllegalArgumentException("--sweep must be <pref scalings>/<pref powers>/<priority scalings>");
+    }
+    List<ValueFunc> valueFuncs = ValueFuncSweep.grid(
+        doubles("--sweep", grid[0]), doubles("--sweep", grid[1]), doubles("--sweep", grid[2]));
+    List<ValueFuncSweep.Result> results;
+    if (options.containsKey("--threads")) {
+      int threads = (int) doubleOption(options, "--threads", 1);
+      if (threads < 1) throw new IllegalArgumentException("--threads must be at least 1");
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        results = sweep.run(valueFuncs, pool);
+      } finally {
+        pool.shutdown();
+      }
+    } else {
+      results = sweep.run(valueFuncs);
+    }
+    long matched = System.nanoTime();
+
+    int ranks = 0;
+    for(ValueFuncSweep.Result r : results) {
+      ranks = Math.max(ranks, r.getRanks());
+    }
+    try (Writer w = openOutput(options)) {
+      w.write("PrefScaling,PrefPower,PriorityScaling,Matched,Score,MaxScore,ScoreRatio");
+      for(int k = 1; k <= ranks; k++) {
+        w.write(",Choice" + k);
+      }
+      w.write(",Unassigned\n");
+      for(ValueFuncSweep.Result r : results) {
+        ValueFunc f = r.getValueFunc();
+        w.write(f.getPrefScaling() + "," + f.getPrefPower() + "," + f.getPriorityScaling() + ","
+            + r.getMatchedPercentage() + "," + r.getScore() + "," + r.getMaxScore() + ","
+            + (r.getMaxScore() == 0 ? 0 : r.getScore() / r.getMaxScore()));
+        for(int k = 0; k < ranks; k++) {
+          w.write("," + r.getRankCount(k));
+        }
+        w.write("," + r.getUnassigned() + "\n");
+      }
+    }
+    long written = System.nanoTime();
+
+    System.err.println(valueFuncs.size() + " value functions");
+    printStats(start, read, matched, written, null);
+  }
+
+  private static double[] doubles(String name, String list) {
+    String[] parts = list.split(",");
+    double[] values = new double[parts.length];
+    for(int k = 0; k < parts.length; k++) {
+      try {
+        values[k] = Double.parseDouble(parts[k].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(name + " must list numbers, had " + parts[k]);
+      }
+    }
+    return values;
+  }
+
+  /** The --out file, or standard output (left open) if there is none. */
+  private static Writer openOutput(Map<String, String> options) throws IOException {
+    String out = options.get("--out");
+    if (out != null) {
+      return Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8);
+    }
+    return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+
+  /**
+   * Prints the timings and heap use. The peak is that of the whole process, reading and compiling
+   * the roster included; that of the match alone is printed next to it if there is a single match.
+   */
+  private static void printStats(long start, long read, long matched, long written, MatchStats stats) {
+    System.err.printf("Read %d ms, match %d ms, write %d ms%n",
+        millis(start, read), millis(read, matched), millis(matched, written));
+    Runtime rt = Runtime.getRuntime();
+    System.err.printf("Heap used %d MB, process peak %d MB%s, max %d MB%n",
+        (rt.totalMemory() - rt.freeMemory()) >> 20, peakHeap() >> 20,
+        stats == null ? "" : ", peak during match " + (stats.getPeakHeapBytes() >> 20) + " MB", rt.maxMemory() >> 20);
+  }
+
+  private static double doubleOption(Map<String, String> options, String name, double otherwise) {
+    String value = options.get(name);
+    if (value == null) return otherwise;
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be a number, was " + value);
+    }
+  }
+
+  private static long millis(long from, long to) {
+    return (to - from) / 1000000;
+  }
+
+  /** Peak use of the heap since the JVM started, summed over its pools, whose peaks nothing resets. */
+  private static long peakHeap() {
+    long peak = 0;
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  private static void report(String path, RosterImporter.Result result) {
+    if (result.getErrorCount() > 0) {
+      System.err.println(path + ": " + result);
+      for(RosterImporter.RowError error : result.getErrors()) {
+        System.err.println("  " + error);
+      }
+    }
+  }
+}
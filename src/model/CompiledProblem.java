@@ -0,0 +1,301 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Index-based form of an APPModel, built once per solve and shared by the solvers.
+ *
+ * People and items get dense ids in model order. The ranked choices of person p are the edges
+ * [prefStart[p], prefEnd[p]), best choice first, and each edge carries its item id, the
+ * preference value the person gave it (as in Person.getPreferences()), and its integer weight under
+ * the ValueFunc the problem was compiled with.
+ *
+ * A person's choices and an item's capacity, and the ValueFunc, can be replaced in place. A person whose new list does
+ * not fit in its old slot is moved to the end of the edge arrays, and the arrays are compacted once
+ * more than half of them is unused; layoutVersion changes whenever edge indices move.
+ *
+ * @author Mshnik
+ */
+public class CompiledProblem implements PreferenceGraph {
+
+  /** Fixed point scale applied to ValueFunc output to get integer edge weights, unless they would not fit. */
+  static final double WEIGHT_SCALE = 1000000;
+
+  ValueFunc valueFunc;
+  final boolean exactWeights;
+  private WeightTable weights;
+  final Person[] people;
+  final Item[] items;
+  final int[] priority;
+  final int[] capacity;
+
+  final int[] prefStart;
+  final int[] prefEnd;
+  int[] prefItem;
+  int[] prefValue;
+  long[] weight;
+
+  private int edgeTop;
+  private int unusedEdges;
+  private int layoutVersion;
+
+  private final Map<String, Integer> personIds;
+  private final Map<String, Integer> itemIds;
+
+  private CompiledProblem(Collection<Person> peopleCol, Collection<Item> itemsCol, ValueFunc valueFunc, boolean exactWeights) {
+    this.valueFunc = valueFunc;
+    this.exactWeights = exactWeights;
+    people = peopleCol.toArray(new Person[0]);
+    items = itemsCol.toArray(new Item[0]);
+
+    itemIds = new HashMap<>(items.length * 2);
+    capacity = new int[items.length];
+    for(int j = 0; j < items.length; j++) {
+      itemIds.put(items[j].id(), j);
+      capacity[j] = Math.max(0, items[j]._2);
+    }
+
+    personIds = new HashMap<>(people.length * 2);
+    priority = new int[people.length];
+    prefStart = new int[people.length];
+    prefEnd = new int[people.length];
+    int longest = 0;
+    int minPriority = Integer.MAX_VALUE;
+    int maxPriority = Integer.MIN_VALUE;
+    for(int p = 0; p < people.length; p++) {
+      personIds.put(people[p].getName(), p);
+      priority[p] = people[p].getPriority();
+      minPriority = Math.min(minPriority, priority[p]);
+      maxPriority = Math.max(maxPriority, priority[p]);
+      prefStart[p] = edgeTop;
+      edgeTop += countKnown(people[p].getPreferences());
+      prefEnd[p] = edgeTop;
+      longest = Math.max(longest, prefEnd[p] - prefStart[p]);
+    }
+    weights = new WeightTable(valueFunc, longest, minPriority, maxPriority, people.length + items.length + 2, exactWeights);
+
+    prefItem = new int[edgeTop];
+    prefValue = new int[edgeTop];
+    weight = new long[edgeTop];
+    for(int p = 0; p < people.length; p++) {
+      fillPreferences(p, people[p].getPreferences());
+    }
+  }
+
+  public static CompiledProblem compile(Collection<Person> people, Collection<Item> items, ValueFunc valueFunc) {
+    return compile(people, items, valueFunc, false);
+  }
+
+  /** As compile, with weights at the resolution of exact mode if exactWeights (see WeightTable). */
+  public static CompiledProblem compile(Collection<Person> people, Collection<Item> items, ValueFunc valueFunc,
+                                        boolean exactWeights) {
+    return new CompiledProblem(people, items, valueFunc, exactWeights);
+  }
+
+  private boolean isKnown(Item i) {
+    return i != null && itemIds.containsKey(i.id());
+  }
+
+  /** Choices of items that are not in the problem (stale names) never become edges. */
+  private int countKnown(Map<Item, Integer> prefs) {
+    int count = 0;
+    for(Item i : prefs.keySet()) {
+      if (isKnown(i)) count++;
+    }
+    return count;
+  }
+
+  /**
+   * Lays out the choices of person p best first and weighs them. Preferences set through
+   * Person.setPreferences have the values count..1, which fix each slot directly; anything else is
+   * sorted.
+   */
+  private void fillPreferences(int p, Map<Item, Integer> prefs) {
+    int start = prefStart[p];
+    int count = prefEnd[p] - start;
+    Arrays.fill(prefValue, start, start + count, 0);
+    boolean direct = true;
+    for(Map.Entry<Item, Integer> entry : prefs.entrySet()) {
+      int value = entry.getValue();
+      if (! isKnown(entry.getKey()) || value < 1 || value > count || prefValue[start + count - value] != 0) {
+        direct = false;
+        break;
+      }
+      prefItem[start + count - value] = itemIds.get(entry.getKey().id());
+      prefValue[start + count - value] = value;
+    }
+    if (! direct) {
+      List<Map.Entry<Item, Integer>> sorted = new ArrayList<>(count);
+      for(Map.Entry<Item, Integer> entry : prefs.entrySet()) {
+        if (isKnown(entry.getKey())) sorted.add(entry);
+      }
+      sorted.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+      for(int k = 0; k < count; k++) {
+        prefItem[start + k] = itemIds.get(sorted.get(k).getKey().id());
+        prefValue[start + k] = sorted.get(k).getValue();
+      }
+    }
+    for(int e = start; e < start + count; e++) {
+      weight[e] = weights.weigh(prefValue[e], priority[p]);
+    }
+  }
+
+  /**
+   * Integer weight of a choice with the given preference value, by a person of the given priority,
+   * in units of 1 / scale. Weighing many edges is cheaper through a WeightTable.
+   */
+  static long weigh(ValueFunc valueFunc, int value, int priority, double scale) {
+    return Math.round(valueFunc.apply(value, priority) * scale);
+  }
+
+  /** Replaces person p, taking its priority and choices from the given Person. */
+  void setPerson(int p, Person person) {
+    people[p] = person;
+    priority[p] = person.getPriority();
+    int count = countKnown(person.getPreferences());
+    int oldCount = prefEnd[p] - prefStart[p];
+    if (count > oldCount) {
+      unusedEdges += oldCount;
+      if (edgeTop + count > prefItem.length) {
+        int size = Math.max(edgeTop + count, prefItem.length + (prefItem.length >> 1));
+        prefItem = Arrays.copyOf(prefItem, size);
+        prefValue = Arrays.copyOf(prefValue, size);
+        weight = Arrays.copyOf(weight, size);
+      }
+      prefStart[p] = edgeTop;
+      edgeTop += count;
+      layoutVersion++;
+    } else {
+      unusedEdges += oldCount - count;
+    }
+    prefEnd[p] = prefStart[p] + count;
+    fillPreferences(p, person.getPreferences());
+
+    if (unusedEdges > edgeTop / 2) {
+      compact();
+    }
+  }
+
+  /** Weighs every edge again under the given ValueFunc, which may change the scale. Edge indices do not move. */
+  void setValueFunc(ValueFunc valueFunc) {
+    this.valueFunc = valueFunc;
+    weights = WeightTable.of(this, valueFunc, exactWeights);
+    for(int p = 0; p < people.length; p++) {
+      for(int e = prefStart[p]; e < prefEnd[p]; e++) {
+        weight[e] = weights.weigh(prefValue[e], priority[p]);
+      }
+    }
+  }
+
+  /** Replaces item j, taking its capacity from the given Item. */
+  void setItem(int j, Item item) {
+    items[j] = item;
+    capacity[j] = Math.max(0, item._2);
+  }
+
+  private void compact() {
+    int size = edgeTop - unusedEdges;
+    int[] newItem = new int[size];
+    int[] newValue = new int[size];
+    long[] newWeight = new long[size];
+    int top = 0;
+    for(int p = 0; p < people.length; p++) {
+      int count = prefEnd[p] - prefStart[p];
+      System.arraycopy(prefItem, prefStart[p], newItem, top, count);
+      System.arraycopy(prefValue, prefStart[p], newValue, top, count);
+      System.arraycopy(weight, prefStart[p], newWeight, top, count);
+      prefStart[p] = top;
+      top += count;
+      prefEnd[p] = top;
+    }
+    prefItem = newItem;
+    prefValue = newValue;
+    weight = newWeight;
+    edgeTop = top;
+    unusedEdges = 0;
+    layoutVersion++;
+  }
+
+  @Override
+  public int getLayoutVersion() {
+    return layoutVersion;
+  }
+
+  @Override
+  public double getWeightScale() {
+    return weights.getScale();
+  }
+
+  @Override
+  public int capacity(int item) {
+    return capacity[item];
+  }
+
+  @Override
+  public int priority(int p) {
+    return priority[p];
+  }
+
+  @Override
+  public int edgeStart(int p) {
+    return prefStart[p];
+  }
+
+  @Override
+  public int edgeEnd(int p) {
+    return prefEnd[p];
+  }
+
+  @Override
+  public int edgeItem(int e) {
+    return prefItem[e];
+  }
+
+  @Override
+  public int edgeValue(int p, int e) {
+    return prefValue[e];
+  }
+
+  @Override
+  public long edgeWeight(int p, int e) {
+    return weight[e];
+  }
+
+  public ValueFunc getValueFunc() {
+    return valueFunc;
+  }
+
+  @Override
+  public int getPeopleCount() {
+    return people.length;
+  }
+
+  @Override
+  public int getItemCount() {
+    return items.length;
+  }
+
+  public int getEdgeCount() {
+    return edgeTop - unusedEdges;
+  }
+
+  public Person getPerson(int id) {
+    return people[id];
+  }
+
+  public Item getItem(int id) {
+    return items[id];
+  }
+
+  /** Returns the id of the person with the given name, or -1 if there is none. */
+  public int personId(String name) {
+    Integer id = personIds.get(name);
+    return id == null ? -1 : id;
+  }
+
+  /** Returns the id of the item with the given name, or -1 if there is none. */
+  public int itemId(String name) {
+    Integer id = itemIds.get(name);
+    return id == null ? -1 : id;
+  }
+}
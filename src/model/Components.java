@@ -0,0 +1,333 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * The connected components of a PreferenceGraph, solved apart and merged back together.
+ *
+ * Rosters are often nearly disconnected, with each department ranking only its own items, and no
+ * augmenting path ever leaves a component. Components are found by union-find over the items, joining
+ * the choices of each person, and each is solved on a MinCostFlowMatcher of its own, in parallel.
+ * Together their flows are a max-cardinality, max-value flow of the whole graph. The union-find is on
+ * int arrays rather than common.dataStructures.UnionFind, which would box every item.
+ *
+ * The potentials are merged too, so that the solver that takes over can repair the flow after edits.
+ * Every solver keeps its source at 0, but its sink ends up at the length of its own last augmenting
+ * path. raiseSink brings every sink up to the highest, where a single solve of the whole graph would
+ * have left it, and the potentials of all components then fit together as they are.
+ *
+ * @author Mshnik
+ */
+final class Components {
+
+  private final PreferenceGraph graph;
+  private final int peopleCount;
+  private final int itemCount;
+  private final int count;
+
+  /** The people of component c are people[peopleStart[c] .. peopleStart[c + 1]), and likewise items. */
+  private final int[] peopleStart;
+  private final int[] people;
+  private final int[] itemStart;
+  private final int[] items;
+  /** Index of each item within its component, or -1 if nobody chose it. */
+  private final int[] localItem;
+
+  private final int[] edge;
+  private final long[] potential;
+  /** The solver of each component, from solve() until addWorkTo(). */
+  private MinCostFlowMatcher[] solvers;
+  /** Bytes allocated by pool threads in solve(), or negative if one of them could not count them. */
+  private final LongAdder workerAllocatedBytes = new LongAdder();
+
+  Components(PreferenceGraph graph) {
+    this.graph = graph;
+    peopleCount = graph.getPeopleCount();
+    itemCount = graph.getItemCount();
+
+    int[] parent = new int[itemCount];
+    int[] size = new int[itemCount];
+    boolean[] chosen = new boolean[itemCount];
+    for(int j = 0; j < itemCount; j++) {
+      parent[j] = j;
+      size[j] = 1;
+    }
+    int[] firstItem = new int[peopleCount];
+    for(int p = 0; p < peopleCount; p++) {
+      firstItem[p] = -1;
+      for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+        int j = graph.edgeItem(e);
+        if (j == -1) continue;
+        chosen[j] = true;
+        if (firstItem[p] == -1) {
+          firstItem[p] = j;
+        } else {
+          union(parent, size, firstItem[p], j);
+        }
+      }
+    }
+
+    int[] component = new int[itemCount];
+    int components = 0;
+    for(int j = 0; j < itemCount; j++) {
+      component[j] = chosen[j] && find(parent, j) == j ? components++ : -1;
+    }
+    count = components;
+    peopleStart = new int[count + 1];
+    itemStart = new int[count + 1];
+    for(int j = 0; j < itemCount; j++) {
+      if (chosen[j]) {
+        component[j] = component[find(parent, j)];
+        itemStart[component[j] + 1]++;
+      }
+    }
+    for(int p = 0; p < peopleCount; p++) {
+      if (firstItem[p] != -1) peopleStart[component[firstItem[p]] + 1]++;
+    }
+    for(int c = 0; c < count; c++) {
+      peopleStart[c + 1] += peopleStart[c];
+      itemStart[c + 1] += itemStart[c];
+    }
+
+    items = new int[itemStart[count]];
+    localItem = new int[itemCount];
+    int[] next = itemStart.clone();
+    for(int j = 0; j < itemCount; j++) {
+      if (chosen[j]) {
+        int c = component[j];
+        localItem[j] = next[c] - itemStart[c];
+        items[next[c]++] = j;
+      } else {
+        localItem[j] = -1;
+      }
+    }
+    people = new int[peopleStart[count]];
+    next = peopleStart.clone();
+    for(int p = 0; p < peopleCount; p++) {
+      if (firstItem[p] != -1) people[next[component[firstItem[p]]]++] = p;
+    }
+
+    edge = new int[peopleCount];
+    Arrays.fill(edge, -1);
+    potential = new long[peopleCount + itemCount + 2];
+  }
+
+  private static int find(int[] parent, int j) {
+    while (parent[j] != j) {
+      parent[j] = parent[parent[j]];
+      j = parent[j];
+    }
+    return j;
+  }
+
+  private static void union(int[] parent, int[] size, int a, int b) {
+    a = find(parent, a);
+    b = find(parent, b);
+    if (a == b) return;
+    if (size[a] < size[b]) {
+      int t = a;
+      a = b;
+      b = t;
+    }
+    parent[b] = a;
+    size[a] += size[b];
+  }
+
+  /** Number of components with at least one choice in them. */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Solves every component, in parallel, and merges the results into getEdges() and getPotentials().
+   * The monitor, if not null, sees the progress of all components summed, and stopping it stops them
+   * all; the merged flow is then only partly solved.
+   */
+  void solve(MatchMonitor monitor) {
+    solvers = new MinCostFlowMatcher[count];
+    Progress progress = monitor == null ? null : new Progress(monitor, count);
+    Thread caller = Thread.currentThread();
+    IntStream.range(0, count).parallel().forEach(counted(caller, c -> {
+      solvers[c] = new MinCostFlowMatcher(new Component(c));
+      solvers[c].solve(progress == null ? null : (matched, augmentations, score) ->
+          progress.report(c, matched, augmentations, score));
+    }));
+
+    long gap = Long.MIN_VALUE;
+    for(int c = 0; c < count; c++) {
+      gap = Math.max(gap, solvers[c].getPotential(sinkOf(c)));
+    }
+    final long sinkPotential = gap;
+    IntStream.range(0, count).parallel().forEach(counted(caller, c -> {
+      solvers[c].raiseSink(sinkPotential);
+      collect(c, solvers[c]);
+    }));
+    for(int j = 0; j < itemCount; j++) {
+      if (localItem[j] == -1) potential[peopleCount + j] = sinkPotential;
+    }
+    potential[peopleCount + itemCount + 1] = sinkPotential;
+  }
+
+  /**
+   * The task, counting what it allocates into workerAllocatedBytes when it runs on a pool thread.
+   * What it allocates on the caller is counted by whoever measures the caller.
+   */
+  private IntConsumer counted(Thread caller, IntConsumer task) {
+    return c -> {
+      if (Thread.currentThread() == caller) {
+        task.accept(c);
+        return;
+      }
+      long before = MatchStats.allocatedBytes();
+      task.accept(c);
+      long after = MatchStats.allocatedBytes();
+      workerAllocatedBytes.add(before == -1 || after == -1 ? Long.MIN_VALUE / 2 : after - before);
+    };
+  }
+
+  private int sinkOf(int c) {
+    return peopleStart[c + 1] - peopleStart[c] + itemStart[c + 1] - itemStart[c] + 1;
+  }
+
+  /** Copies the flow and potentials of component c into the arrays for the whole graph. */
+  private void collect(int c, MinCostFlowMatcher solver) {
+    int componentPeople = peopleStart[c + 1] - peopleStart[c];
+    for(int k = 0; k < componentPeople; k++) {
+      int p = people[peopleStart[c] + k];
+      edge[p] = solver.getMatchedItem(k) == -1 ? -1 : solver.getMatchedEdge(k);
+      potential[p] = solver.getPotential(k);
+    }
+    for(int k = 0; k < itemStart[c + 1] - itemStart[c]; k++) {
+      potential[peopleCount + items[itemStart[c] + k]] = solver.getPotential(componentPeople + k);
+    }
+  }
+
+  /**
+   * Adds the work of the solvers of every component, and what pool threads allocated for them, to the
+   * counts of solver, and lets them go.
+   */
+  void addWorkTo(MinCostFlowMatcher solver) {
+    for(MinCostFlowMatcher s : solvers) {
+      solver.addWork(s);
+    }
+    long allocated = workerAllocatedBytes.sum();
+    solver.addWorkerAllocatedBytes(allocated < 0 ? -1 : allocated);
+    solvers = null;
+  }
+
+  /** The edge each person is assigned by, or -1, after solve(). */
+  int[] getEdges() {
+    return edge;
+  }
+
+  /** The potential of every node of the whole graph, numbered as in MinCostFlowMatcher, after solve(). */
+  long[] getPotentials() {
+    return potential;
+  }
+
+  /** Component c, with its people and items numbered from 0. Edges keep the numbers of the graph. */
+  private class Component implements PreferenceGraph {
+    private final int firstPerson;
+    private final int firstItem;
+    private final int peopleCount;
+    private final int itemCount;
+
+    Component(int c) {
+      firstPerson = peopleStart[c];
+      firstItem = itemStart[c];
+      peopleCount = peopleStart[c + 1] - firstPerson;
+      itemCount = itemStart[c + 1] - firstItem;
+    }
+
+    @Override
+    public int getPeopleCount() {
+      return peopleCount;
+    }
+
+    @Override
+    public int getItemCount() {
+      return itemCount;
+    }
+
+    @Override
+    public int capacity(int item) {
+      return graph.capacity(items[firstItem + item]);
+    }
+
+    @Override
+    public int priority(int p) {
+      return graph.priority(people[firstPerson + p]);
+    }
+
+    @Override
+    public int edgeStart(int p) {
+      return graph.edgeStart(people[firstPerson + p]);
+    }
+
+    @Override
+    public int edgeEnd(int p) {
+      return graph.edgeEnd(people[firstPerson + p]);
+    }
+
+    @Override
+    public int edgeItem(int e) {
+      int j = graph.edgeItem(e);
+      return j == -1 ? -1 : localItem[j];
+    }
+
+    @Override
+    public int edgeValue(int p, int e) {
+      return graph.edgeValue(people[firstPerson + p], e);
+    }
+
+    @Override
+    public long edgeWeight(int p, int e) {
+      return graph.edgeWeight(people[firstPerson + p], e);
+    }
+
+    @Override
+    public double getWeightScale() {
+      return graph.getWeightScale();
+    }
+
+    @Override
+    public int getLayoutVersion() {
+      return graph.getLayoutVersion();
+    }
+  }
+
+  /** Sums the progress of every component for one monitor, which any solver thread may report to. */
+  private static class Progress {
+    private final MatchMonitor monitor;
+    private final int[] matched;
+    private final int[] augmentations;
+    private final double[] score;
+    private int totalMatched;
+    private int totalAugmentations;
+    private double totalScore;
+    private boolean stopped;
+
+    Progress(MatchMonitor monitor, int components) {
+      this.monitor = monitor;
+      matched = new int[components];
+      augmentations = new int[components];
+      score = new double[components];
+    }
+
+    synchronized boolean report(int c, int matched, int augmentations, double score) {
+      totalMatched += matched - this.matched[c];
+      totalAugmentations += augmentations - this.augmentations[c];
+      totalScore += score - this.score[c];
+      this.matched[c] = matched;
+      this.augmentations[c] = augmentations;
+      this.score[c] = score;
+      if (! stopped && ! monitor.progress(totalMatched, totalAugmentations, totalScore)) {
+        stopped = true;
+      }
+      return ! stopped;
+    }
+  }
+}
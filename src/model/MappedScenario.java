@@ -0,0 +1,380 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A scenario file written by ScenarioIO, memory-mapped read only instead of loaded into an APPModel.
+ *
+ * Priorities, capacities, preferences and names stay in the mapping and are read in place; the heap
+ * only holds one int per person (an index into a small table of edge weights per priority) and, once
+ * a name is looked up, an index of all names. Person and Item objects are built on demand by
+ * getPerson and getItem and are not kept. The solver reads its edges straight from the mapping, and
+ * since nothing here is ever written, any number of threads can match the same or different mapped
+ * scenarios at once, each paying only for its own solver state. Mappings of the same file share
+ * their pages through the operating system.
+ *
+ * The mapping is released when this object is garbage collected. Until then, Windows will not let
+ * the file be deleted or replaced.
+ *
+ * @author Mshnik
+ */
+public class MappedScenario implements PreferenceGraph {
+
+  private final ByteBuffer buffer;
+  private final ScenarioIO.Header header;
+  private final IntBuffer capacity;
+  private final IntBuffer priority;
+  private final IntBuffer prefStart;
+  private final IntBuffer prefItem;
+  private final IntBuffer stringStart;
+  private final IntBuffer savedMatching;
+  private final int stringData;
+
+  private final ValueFunc valueFunc;
+  private final int[] priorityClass;
+  private final int[] classPriority;
+  private final double weightScale;
+  private final long[][] classWeight;
+
+  private volatile int[] nameIndex;
+
+  private MappedScenario(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    header = new ScenarioIO.Header(buffer);
+    long[] offsets = header.offsets;
+    capacity = ScenarioIO.intView(buffer, offsets[ScenarioIO.SECTION_CAPACITY], header.itemCount);
+    priority = ScenarioIO.intView(buffer, offsets[ScenarioIO.SECTION_PRIORITY], header.peopleCount);
+    prefStart = ScenarioIO.intView(buffer, offsets[ScenarioIO.SECTION_PREF_START], header.peopleCount + 1);
+    prefItem = ScenarioIO.intView(buffer, offsets[ScenarioIO.SECTION_PREF_ITEM], header.slotCount);
+    stringStart = ScenarioIO.intView(buffer, offsets[ScenarioIO.SECTION_STRING_START],
+        header.itemCount + header.peopleCount + 1);
+    savedMatching = header.hasMatching()
+        ? ScenarioIO.intView(buffer, offsets[ScenarioIO.SECTION_MATCHING], header.peopleCount) : null;
+    stringData = (int) offsets[ScenarioIO.SECTION_STRING_DATA];
+    header.checkPreferences(prefStart, prefItem);
+    header.checkStrings(stringStart, buffer.limit());
+    if (savedMatching != null) header.checkMatching(savedMatching, capacity);
+
+    Map<Integer, Integer> classes = new HashMap<>();
+    priorityClass = new int[header.peopleCount];
+    for(int p = 0; p < header.peopleCount; p++) {
+      Integer c = classes.get(priority.get(p));
+      if (c == null) {
+        c = classes.size();
+        classes.put(priority.get(p), c);
+      }
+      priorityClass[p] = c;
+    }
+    classPriority = new int[classes.size()];
+    for(Map.Entry<Integer, Integer> entry : classes.entrySet()) {
+      classPriority[entry.getValue()] = entry.getKey();
+    }
+    valueFunc = header.valueFunc;
+    WeightTable weights = weightTable(valueFunc);
+    weightScale = weights.getScale();
+    classWeight = weigh(weights);
+  }
+
+  /** Shares the mapping and people of other, weighing edges with a different ValueFunc. */
+  private MappedScenario(MappedScenario other, ValueFunc valueFunc) {
+    buffer = other.buffer;
+    header = other.header;
+    capacity = other.capacity;
+    priority = other.priority;
+    prefStart = other.prefStart;
+    prefItem = other.prefItem;
+    stringStart = other.stringStart;
+    savedMatching = other.savedMatching;
+    stringData = other.stringData;
+    priorityClass = other.priorityClass;
+    classPriority = other.classPriority;
+    nameIndex = other.nameIndex;
+    this.valueFunc = valueFunc;
+    WeightTable weights = weightTable(valueFunc);
+    weightScale = weights.getScale();
+    classWeight = weigh(weights);
+  }
+
+  /** Maps a file written by ScenarioIO.write, checking it as ScenarioIO.read would. */
+  public static MappedScenario open(Path file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large");
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    return new MappedScenario(buffer.order(ByteOrder.LITTLE_ENDIAN));
+  }
+
+  /** The same scenario under another ValueFunc. Both share one mapping. */
+  public MappedScenario withValueFunc(ValueFunc valueFunc) {
+    return new MappedScenario(this, valueFunc);
+  }
+
+  private int longestList() {
+    int longest = 0;
+    for(int p = 0; p < header.peopleCount; p++) {
+      longest = Math.max(longest, prefStart.get(p + 1) - prefStart.get(p));
+    }
+    return longest;
+  }
+
+  private WeightTable weightTable(ValueFunc valueFunc) {
+    int minPriority = Integer.MAX_VALUE;
+    int maxPriority = Integer.MIN_VALUE;
+    for(int c : classPriority) {
+      minPriority = Math.min(minPriority, c);
+      maxPriority = Math.max(maxPriority, c);
+    }
+    return new WeightTable(valueFunc, longestList(), minPriority, maxPriority,
+        header.peopleCount + header.itemCount + 2, header.isExactWeights());
+  }
+
+  /** classWeight[c][value] is the weight of a choice of the given value by a person of priority class c. */
+  private long[][] weigh(WeightTable table) {
+    int longest = longestList();
+    long[][] weights = new long[classPriority.length][longest + 1];
+    for(int c = 0; c < classPriority.length; c++) {
+      for(int value = 1; value <= longest; value++) {
+        weights[c][value] = table.weigh(value, classPriority[c]);
+      }
+    }
+    return weights;
+  }
+
+  public ValueFunc getValueFunc() {
+    return valueFunc;
+  }
+
+  /** True if the scenario was saved from a model that weighs choices exactly (see APPModel.setExactWeights). */
+  public boolean isExactWeights() {
+    return header.isExactWeights();
+  }
+
+  @Override
+  public int getPeopleCount() {
+    return header.peopleCount;
+  }
+
+  @Override
+  public int getItemCount() {
+    return header.itemCount;
+  }
+
+  @Override
+  public int capacity(int item) {
+    return Math.max(0, capacity.get(item));
+  }
+
+  @Override
+  public int edgeStart(int p) {
+    return prefStart.get(p);
+  }
+
+  @Override
+  public int edgeEnd(int p) {
+    return prefStart.get(p + 1);
+  }
+
+  @Override
+  public int edgeItem(int e) {
+    return prefItem.get(e);
+  }
+
+  @Override
+  public int edgeValue(int p, int e) {
+    return prefStart.get(p + 1) - e;
+  }
+
+  @Override
+  public long edgeWeight(int p, int e) {
+    return classWeight[priorityClass[p]][prefStart.get(p + 1) - e];
+  }
+
+  @Override
+  public int getLayoutVersion() {
+    return 0;
+  }
+
+  @Override
+  public double getWeightScale() {
+    return weightScale;
+  }
+
+  @Override
+  public int priority(int p) {
+    return priority.get(p);
+  }
+
+  public String getItemName(int j) {
+    return string(j);
+  }
+
+  public String getPersonName(int p) {
+    return string(header.itemCount + p);
+  }
+
+  /** A new Item with the name and capacity of item j. */
+  public Item getItem(int j) {
+    return new Item(getItemName(j), capacity.get(j));
+  }
+
+  /** A new Person with the name, priority and choices of person p. Empty slots are null items. */
+  public Person getPerson(int p) {
+    List<Item> prefs = new ArrayList<>(edgeEnd(p) - edgeStart(p));
+    for(int e = edgeStart(p); e < edgeEnd(p); e++) {
+      int j = prefItem.get(e);
+      prefs.add(j == -1 ? null : getItem(j));
+    }
+    return new Person(getPersonName(p), priority.get(p)).setPreferences(prefs);
+  }
+
+  /** The preference value person p gave item j, or 0 if it is not one of their choices. */
+  public int getPreference(int p, int j) {
+    int end = edgeEnd(p);
+    for(int e = edgeStart(p); e < end; e++) {
+      if (prefItem.get(e) == j) return end - e;
+    }
+    return 0;
+  }
+
+  /** Returns the id of the item with the given name, or -1 if there is none. */
+  public int itemId(String name) {
+    return find(name, 0, header.itemCount);
+  }
+
+  /** Returns the id of the person with the given name, or -1 if there is none. */
+  public int personId(String name) {
+    int s = find(name, header.itemCount, header.itemCount + header.peopleCount);
+    return s == -1 ? -1 : s - header.itemCount;
+  }
+
+  public boolean hasSavedMatching() {
+    return savedMatching != null;
+  }
+
+  public boolean isSavedMatchingComplete() {
+    return header.isMatchingComplete();
+  }
+
+  /** The item person p had in the saved matching, or -1. Only valid if hasSavedMatching(). */
+  public int getSavedMatchedItem(int p) {
+    return savedMatching.get(p);
+  }
+
+  /**
+   * Solves this scenario as APPModel.match() would, on solver state of its own. Returns the item
+   * of every person, or -1 for people left unassigned; if the monitor stopped the solver, this is the
+   * partial matching it had.
+   */
+  public int[] match(MatchMonitor monitor) {
+    return match(MatchingStrategy.OPTIMAL, monitor);
+  }
+
+  /**
+   * As match(monitor), with the given strategy. Only the strategies of MatchingStrategy.BUILT_IN work
+   * on a scenario that is not compiled. The run is recorded in MatcherMetrics.
+   */
+  public int[] match(MatchingStrategy strategy, MatchMonitor monitor) {
+    MatchStats stats = new MatchStats(strategy);
+    stats.built(this);
+    int[] matchedItem;
+    if (strategy instanceof OptimalStrategy) {
+      matchedItem = ((OptimalStrategy) strategy).matchGraph(this, monitor, stats);
+    } else if (strategy instanceof SerialDictatorship) {
+      stats.presolved();
+      matchedItem = SerialDictatorship.match(this);
+      stats.solved(true);
+    } else {
+      throw new IllegalArgumentException(strategy + " can only match a compiled problem");
+    }
+    int matched = 0;
+    for(int j : matchedItem) {
+      if (j != -1) matched++;
+    }
+    stats.extracted(matched);
+    MatcherMetrics.get().record(stats);
+    return matchedItem;
+  }
+
+  /** Score of a matching returned by match(), as APPModel.getMatchingScore() computes it. */
+  public double getMatchingScore(int[] matchedItem) {
+    double score = 0;
+    for(int p = 0; p < matchedItem.length; p++) {
+      if (matchedItem[p] != -1) {
+        score += valueFunc.apply(getPreference(p, matchedItem[p]), priority.get(p));
+      }
+    }
+    return score;
+  }
+
+  private String string(int s) {
+    int start = stringStart.get(s);
+    byte[] bytes = new byte[stringStart.get(s + 1) - start];
+    for(int k = 0; k < bytes.length; k++) {
+      bytes[k] = buffer.get(stringData + start + k);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Finds the string in [from, to) equal to name, through an open addressing index of all names. */
+  private int find(String name, int from, int to) {
+    int[] index = nameIndex;
+    if (index == null) {
+      index = buildNameIndex();
+      nameIndex = index;
+    }
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    int mask = index.length - 1;
+    for(int slot = hash(bytes) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int s = index[slot] - 1;
+      if (s >= from && s < to && equals(s, bytes)) return s;
+    }
+    return -1;
+  }
+
+  private int[] buildNameIndex() {
+    int count = header.itemCount + header.peopleCount;
+    int[] index = new int[Integer.highestOneBit(Math.max(1, count)) << 2];
+    int mask = index.length - 1;
+    for(int s = 0; s < count; s++) {
+      int slot = hash(s) & mask;
+      while (index[slot] != 0) slot = (slot + 1) & mask;
+      index[slot] = s + 1;
+    }
+    return index;
+  }
+
+  private int hash(int s) {
+    int h = 0;
+    for(int k = stringData + stringStart.get(s); k < stringData + stringStart.get(s + 1); k++) {
+      h = 31 * h + buffer.get(k);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static int hash(byte[] bytes) {
+    int h = 0;
+    for(byte b : bytes) {
+      h = 31 * h + b;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private boolean equals(int s, byte[] bytes) {
+    int start = stringData + stringStart.get(s);
+    if (stringData + stringStart.get(s + 1) - start != bytes.length) return false;
+    for(int k = 0; k < bytes.length; k++) {
+      if (buffer.get(start + k) != bytes[k]) return false;
+    }
+    return true;
+  }
+}
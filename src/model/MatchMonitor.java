@@ -0,0 +1,16 @@
+package model;
+
+/**
+ * Receives progress reports from a running APPModel.match() and may stop it early.
+ *
+ * @author Mshnik
+ */
+public interface MatchMonitor {
+
+  /**
+   * Called between rounds of the solver with the number of people matched so far and the score of
+   * that partial matching. Returning false stops the solver; the matching it has at that point is
+   * feasible and the best of its size.
+   */
+  boolean progress(int matched, int augmentations, double score);
+}
@@ -0,0 +1,304 @@
+package model;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * What one match took: the time spent in each phase, the size of the network, the work of the
+ * solver and the memory used. APPModel.match() and MappedScenario.match() record one per run, which
+ * APPModel.getLastMatchStats() and the MatcherMetrics MBean give out, and toJson() writes as a line
+ * of a run log.
+ *
+ * The phases are build (compiling the model, or nothing if it was compiled already), presolve
+ * (starting the solver: Presolve and the solve of what it leaves, or the auction), solve (the
+ * successive shortest paths, or the whole match for strategies that are not optimal) and extract
+ * (turning the assignment into a matching). A repair, by a solver kept from the last match, has no
+ * presolve. The solver counts are of this run only, over every solver its result was started from.
+ *
+ * Allocated bytes are those of the thread that ran the match, and of the pool threads that solved
+ * components for it (see Components), and are -1 where the JVM does not count them. Peak heap is
+ * the highest heap use seen during the run: at the end of each phase, and just before each garbage
+ * collection, from the notifications of the collectors. It is the use of the whole heap, whatever
+ * else the JVM is doing at the time, but no state of the JVM is changed to measure it, so runs in
+ * parallel do not disturb each other's figures.
+ *
+ * @author Mshnik
+ */
+public final class MatchStats {
+
+  /** Names of the memory pools of the heap. */
+  private static final Set<String> HEAP_POOLS = heapPools();
+
+  private final String strategy;
+  private boolean repair;
+  private int people;
+  private int items;
+  private long edges;
+  private long buildNanos;
+  private long presolveNanos;
+  private long solveNanos;
+  private long extractNanos;
+  private int augmentations;
+  private int cancelledCycles;
+  private int dijkstraRuns;
+  private long heapPops;
+  private int matched;
+  private boolean complete;
+  private long allocatedBytes;
+  private long workerAllocatedBytes;
+  private boolean workersCounted = true;
+  private final AtomicLong peakHeapBytes = new AtomicLong();
+
+  private long lapStart;
+  private final long allocatedAtStart;
+  private final List<NotificationEmitter> collectors = new ArrayList<>();
+  private final NotificationListener gcListener = this::collected;
+
+  /** Starts timing a run of the given strategy, from the build phase. */
+  MatchStats(MatchingStrategy strategy) {
+    this.strategy = strategy.toString();
+    allocatedAtStart = allocatedBytes();
+    for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (collector instanceof NotificationEmitter) {
+        ((NotificationEmitter) collector).addNotificationListener(gcListener, null, null);
+        collectors.add((NotificationEmitter) collector);
+      }
+    }
+    sampleHeap(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    lapStart = System.nanoTime();
+  }
+
+  private long lap() {
+    sampleHeap(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    long now = System.nanoTime();
+    long nanos = now - lapStart;
+    lapStart = now;
+    return nanos;
+  }
+
+  private void sampleHeap(long used) {
+    peakHeapBytes.accumulateAndGet(used, Math::max);
+  }
+
+  /** Takes the heap use just before a collection, which is as high as it got since the last one. */
+  private void collected(Notification notification, Object handback) {
+    if (! notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+    long used = 0;
+    for(Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+      if (HEAP_POOLS.contains(pool.getKey())) used += pool.getValue().getUsed();
+    }
+    sampleHeap(used);
+  }
+
+  /** Ends the build phase, with the graph it built. */
+  void built(PreferenceGraph graph) {
+    buildNanos = lap();
+    people = graph.getPeopleCount();
+    items = graph.getItemCount();
+    edges = 0;
+    for(int p = 0; p < people; p++) {
+      edges += graph.edgeEnd(p) - graph.edgeStart(p);
+    }
+  }
+
+  /** Ends the presolve phase. */
+  void presolved() {
+    presolveNanos = lap();
+  }
+
+  /** Ends the solve phase, which a monitor stopped unless complete. */
+  void solved(boolean complete) {
+    solveNanos = lap();
+    this.complete = complete;
+  }
+
+  /**
+   * Counts the work solver has done so far as done before this run, for a solver kept from an
+   * earlier one; such a run is a repair.
+   */
+  void workBefore(MinCostFlowMatcher solver) {
+    repair = true;
+    augmentations -= solver.getAugmentations();
+    cancelledCycles -= solver.getCancelledCycles();
+    dijkstraRuns -= solver.getDijkstraRuns();
+    heapPops -= solver.getHeapPops();
+    workerAllocatedBytes -= Math.max(0, solver.getWorkerAllocatedBytes());
+  }
+
+  /** Counts the work solver has done so far, less what workBefore(solver) counted. */
+  void workAfter(MinCostFlowMatcher solver) {
+    augmentations += solver.getAugmentations();
+    cancelledCycles += solver.getCancelledCycles();
+    dijkstraRuns += solver.getDijkstraRuns();
+    heapPops += solver.getHeapPops();
+    if (solver.getWorkerAllocatedBytes() == -1) {
+      workersCounted = false;
+    } else {
+      workerAllocatedBytes += solver.getWorkerAllocatedBytes();
+    }
+  }
+
+  /** Ends the extract phase and the run, which matched the given number of people. */
+  void extracted(int matched) {
+    extractNanos = lap();
+    this.matched = matched;
+    long allocatedAtEnd = allocatedBytes();
+    allocatedBytes = allocatedAtStart == -1 || allocatedAtEnd == -1 || ! workersCounted ? -1
+        : allocatedAtEnd - allocatedAtStart + workerAllocatedBytes;
+    for(NotificationEmitter collector : collectors) {
+      try {
+        collector.removeNotificationListener(gcListener);
+      } catch (javax.management.ListenerNotFoundException e) {
+        // Only added once, so this cannot happen
+      }
+    }
+    collectors.clear();
+  }
+
+  /**
+   * Bytes allocated so far by the current thread, or -1 if the JVM does not count them. Work handed
+   * to other threads measures itself by this, before and after.
+   */
+  static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (! (threads instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+    if (! counting.isThreadAllocatedMemorySupported() || ! counting.isThreadAllocatedMemoryEnabled()) return -1;
+    return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static Set<String> heapPools() {
+    Set<String> names = new HashSet<>();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) names.add(pool.getName());
+    }
+    return names;
+  }
+
+  public String getStrategy() {
+    return strategy;
+  }
+
+  /** True if the run repaired the matching of the last one rather than solving from scratch. */
+  public boolean isRepair() {
+    return repair;
+  }
+
+  public int getPeople() {
+    return people;
+  }
+
+  public int getItems() {
+    return items;
+  }
+
+  /** Nodes of the flow network: every person and item, the source and the sink. */
+  public int getNodes() {
+    return people + items + 2;
+  }
+
+  /** Ranked (person, item) pairs, which are the edges between people and items. */
+  public long getEdges() {
+    return edges;
+  }
+
+  public long getBuildNanos() {
+    return buildNanos;
+  }
+
+  public long getPresolveNanos() {
+    return presolveNanos;
+  }
+
+  public long getSolveNanos() {
+    return solveNanos;
+  }
+
+  public long getExtractNanos() {
+    return extractNanos;
+  }
+
+  public long getTotalNanos() {
+    return buildNanos + presolveNanos + solveNanos + extractNanos;
+  }
+
+  /** Augmenting paths found, each of which matched one more person or moved a chain of them. */
+  public int getAugmentations() {
+    return augmentations;
+  }
+
+  public int getCancelledCycles() {
+    return cancelledCycles;
+  }
+
+  public int getDijkstraRuns() {
+    return dijkstraRuns;
+  }
+
+  /** Iterations of those Dijkstra runs, i.e. nodes taken off their heaps. */
+  public long getHeapPops() {
+    return heapPops;
+  }
+
+  public int getMatched() {
+    return matched;
+  }
+
+  /** False if the monitor stopped the run before it finished. */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  public long getPeakHeapBytes() {
+    return peakHeapBytes.get();
+  }
+
+  /** This run as a single line JSON object, without a line break, for a run log. */
+  public String toJson() {
+    return "{\"strategy\":\"" + strategy.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+        + ",\"repair\":" + repair
+        + ",\"people\":" + people
+        + ",\"items\":" + items
+        + ",\"nodes\":" + getNodes()
+        + ",\"edges\":" + edges
+        + ",\"buildNanos\":" + buildNanos
+        + ",\"presolveNanos\":" + presolveNanos
+        + ",\"solveNanos\":" + solveNanos
+        + ",\"extractNanos\":" + extractNanos
+        + ",\"totalNanos\":" + getTotalNanos()
+        + ",\"augmentations\":" + augmentations
+        + ",\"cancelledCycles\":" + cancelledCycles
+        + ",\"dijkstraRuns\":" + dijkstraRuns
+        + ",\"heapPops\":" + heapPops
+        + ",\"matched\":" + matched
+        + ",\"complete\":" + complete
+        + ",\"allocatedBytes\":" + allocatedBytes
+        + ",\"peakHeapBytes\":" + getPeakHeapBytes()
+        + "}";
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s%s: %d people, %d items, %d edges; build %d ms, presolve %d ms, solve %d ms, "
+            + "extract %d ms; %d augmentations, %d Dijkstra runs, %d heap pops, %d cancelled cycles",
+        strategy, repair ? " (repair)" : "", people, items, edges, buildNanos / 1000000, presolveNanos / 1000000,
+        solveNanos / 1000000, extractNanos / 1000000, augmentations, dijkstraRuns, heapPops, cancelledCycles);
+  }
+}
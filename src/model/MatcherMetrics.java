@@ -0,0 +1,100 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects the MatchStats of every match in this JVM and publishes them through JMX, as
+ * OBJECT_NAME on the platform MBeanServer. If a run log is set, every run is also appended to it as
+ * a line of JSON (see MatchStats.toJson()), so that a series of batch runs can be compared later.
+ *
+ * @author Mshnik
+ */
+public final class MatcherMetrics implements MatcherMetricsMXBean {
+
+  public static final String OBJECT_NAME = "model:type=MatcherMetrics";
+
+  private static final MatcherMetrics INSTANCE = new MatcherMetrics();
+
+  static {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+    } catch (JMException | SecurityException e) {
+      System.err.println("Matcher metrics are not published over JMX: " + e.getMessage());
+    }
+  }
+
+  private long runCount;
+  private long stoppedRunCount;
+  private long totalMatchNanos;
+  private MatchStats lastRun;
+  private Path runLog;
+
+  private MatcherMetrics() {}
+
+  public static MatcherMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Appends every run from now on to the given file, creating it if needed, or stops if it is null.
+   * A run that cannot be written is reported on standard error and left out of the log.
+   */
+  public synchronized void setRunLog(Path runLog) {
+    this.runLog = runLog;
+  }
+
+  /** Adds a run that has just ended. */
+  synchronized void record(MatchStats stats) {
+    runCount++;
+    if (! stats.isComplete()) stoppedRunCount++;
+    totalMatchNanos += stats.getTotalNanos();
+    lastRun = stats;
+    if (runLog != null) {
+      try (Writer w = Files.newBufferedWriter(runLog, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+        w.write(stats.toJson());
+        w.write('\n');
+      } catch (IOException e) {
+        System.err.println("Could not append to run log " + runLog + ": " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public synchronized long getRunCount() {
+    return runCount;
+  }
+
+  @Override
+  public synchronized long getStoppedRunCount() {
+    return stoppedRunCount;
+  }
+
+  @Override
+  public synchronized long getTotalMatchMillis() {
+    return totalMatchNanos / 1000000;
+  }
+
+  @Override
+  public synchronized MatchStats getLastRun() {
+    return lastRun;
+  }
+
+  @Override
+  public synchronized String getLastRunJson() {
+    return lastRun == null ? null : lastRun.toJson();
+  }
+
+  @Override
+  public synchronized String getRunLog() {
+    return runLog == null ? null : runLog.toString();
+  }
+}
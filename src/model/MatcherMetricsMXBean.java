@@ -0,0 +1,28 @@
+package model;
+
+/**
+ * Management interface of MatcherMetrics, which is registered as MatcherMetrics.OBJECT_NAME on the
+ * platform MBeanServer, so that jconsole or any JMX client can watch the matches of a running JVM.
+ *
+ * @author Mshnik
+ */
+public interface MatcherMetricsMXBean {
+
+  /** Number of matches run since the JVM started. */
+  long getRunCount();
+
+  /** Number of those that a monitor stopped before they finished. */
+  long getStoppedRunCount();
+
+  /** Time spent in all of them, in ms. */
+  long getTotalMatchMillis();
+
+  /** The most recent match, or null if there was none. */
+  MatchStats getLastRun();
+
+  /** getLastRun() as a line of the run log, or null. */
+  String getLastRunJson();
+
+  /** The file each run is appended to, or null if there is none. */
+  String getRunLog();
+}
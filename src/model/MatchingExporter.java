@@ -0,0 +1,360 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Writes the matching of an APPModel or a MappedScenario, one line per person in model order, as CSV
+ * or TSV (Name,Priority,Assignment,Value), as JSON Lines, or in the plain text layout of the "Save
+ * Matching..." dialog. Rows are written one at a time from the index the matching already has (its
+ * MatchingResult, or the array MappedScenario.match() returns), so memory does not grow with the
+ * number of people.
+ *
+ * CSV and TSV fields that hold the delimiter, a quote or a line break are quoted as RosterImporter
+ * reads them. An unassigned person's Assignment is UNASSIGNED and the columns after it are empty;
+ * without extra columns the row ends at the Assignment, as it always has. The text layout has no
+ * extra columns.
+ *
+ * @author Mshnik
+ */
+public class MatchingExporter {
+
+  public static final String UNASSIGNED = "UNASSIGNED";
+
+  /** Layouts a matching can be written in, each with the file extension it is saved under. */
+  public enum Format {
+    CSV(".csv"),
+    TSV(".tsv"),
+    JSON_LINES(".jsonl"),
+    TEXT(".txt");
+
+    private final String extension;
+
+    Format(String extension) {
+      this.extension = extension;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+  }
+
+  /** Columns that can be written after Value. */
+  public enum Column {
+    /** 1 if the person got their first choice, 2 for their second, and so on. */
+    RANK("Rank", "rank"),
+    /** Value of the assignment under the ValueFunc of the model or scenario. */
+    SCORE("Score", "score"),
+    /** Share of the seats of the assigned item that are taken, from 0 to 1. */
+    FILL_RATE("FillRate", "fillRate");
+
+    private final String header;
+    private final String key;
+
+    Column(String header, String key) {
+      this.header = header;
+      this.key = key;
+    }
+  }
+
+  private MatchingExporter() {}
+
+  /** Writes the current matching of model to out. Does nothing if the model has no matching. */
+  public static void write(APPModel model, Writer out, boolean isText) throws IOException {
+    write(model, out, isText ? Format.TEXT : Format.CSV, Collections.emptySet());
+  }
+
+  /** Writes a matching returned by MappedScenario.match(), in the same format. */
+  public static void write(MappedScenario scenario, int[] matchedItem, Writer out, boolean isText) throws IOException {
+    write(scenario, matchedItem, out, isText ? Format.TEXT : Format.CSV, Collections.emptySet());
+  }
+
+  /** Writes the current matching of model to file in the given format, replacing the file. */
+  public static void write(APPModel model, Path file, Format format, Set<Column> columns) throws IOException {
+    try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      write(model, out, format, columns);
+    }
+  }
+
+  /**
+   * Writes the current matching of model to out in the given format, with the given extra columns.
+   * Does nothing if the model has no matching.
+   */
+  public static void write(APPModel model, Writer out, Format format, Set<Column> columns) throws IOException {
+    MatchingResult result = model.getMatchingResult();
+    if (result == null) return;
+    ValueFunc valueFunc = model.getValueFunc();
+    write(new Rows() {
+      @Override
+      int count() {
+        return result.getPeopleCount();
+      }
+
+      @Override
+      int itemCount() {
+        return result.getItemCount();
+      }
+
+      @Override
+      String name(int p) {
+        return result.getPerson(p).getName();
+      }
+
+      @Override
+      int priority(int p) {
+        return result.getPerson(p).getPriority();
+      }
+
+      @Override
+      int item(int p) {
+        return result.getMatchedItem(p);
+      }
+
+      @Override
+      String itemName(int j) {
+        return result.getItem(j).id();
+      }
+
+      @Override
+      int value(int p) {
+        return result.getValue(p);
+      }
+
+      @Override
+      int rank(int p) {
+        return result.getRank(p);
+      }
+
+      @Override
+      double score(int p) {
+        return valueFunc.apply(result.getValue(p), priority(p));
+      }
+
+      @Override
+      double fillRate(int j) {
+        return ((double) result.getEnrollment(j)) / result.getItem(j)._2;
+      }
+    }, out, format, columns);
+  }
+
+  /** Writes a matching returned by MappedScenario.match(), as write(APPModel, Writer, Format, Set) does. */
+  public static void write(MappedScenario scenario, int[] matchedItem, Writer out, Format format,
+                           Set<Column> columns) throws IOException {
+    int[] enrollment = new int[scenario.getItemCount()];
+    for(int j : matchedItem) {
+      if (j != -1) enrollment[j]++;
+    }
+    ValueFunc valueFunc = scenario.getValueFunc();
+    write(new Rows() {
+      @Override
+      int count() {
+        return scenario.getPeopleCount();
+      }
+
+      @Override
+      int itemCount() {
+        return scenario.getItemCount();
+      }
+
+      @Override
+      String name(int p) {
+        return scenario.getPersonName(p);
+      }
+
+      @Override
+      int priority(int p) {
+        return scenario.priority(p);
+      }
+
+      @Override
+      int item(int p) {
+        return matchedItem[p];
+      }
+
+      @Override
+      String itemName(int j) {
+        return scenario.getItemName(j);
+      }
+
+      @Override
+      int value(int p) {
+        return scenario.getPreference(p, matchedItem[p]);
+      }
+
+      @Override
+      int rank(int p) {
+        return scenario.edgeEnd(p) - scenario.edgeStart(p) - value(p);
+      }
+
+      @Override
+      double score(int p) {
+        return valueFunc.apply(value(p), priority(p));
+      }
+
+      @Override
+      double fillRate(int j) {
+        return ((double) enrollment[j]) / scenario.capacity(j);
+      }
+    }, out, format, columns);
+  }
+
+  /** The people of a matching, numbered from 0, and what each got. Only asked about assigned people's items. */
+  private static abstract class Rows {
+    abstract int count();
+    abstract int itemCount();
+    abstract String name(int p);
+    abstract int priority(int p);
+    /** Item person p got, or -1. */
+    abstract int item(int p);
+    abstract String itemName(int j);
+    abstract int value(int p);
+    /** 0-based rank of the item person p got. */
+    abstract int rank(int p);
+    abstract double score(int p);
+    abstract double fillRate(int j);
+  }
+
+  private static void write(Rows rows, Writer out, Format format, Set<Column> columns) throws IOException {
+    if (format == Format.TEXT && ! columns.isEmpty()) {
+      throw new IllegalArgumentException("The text layout has no extra columns, was asked for " + columns);
+    }
+    columns = columns.isEmpty() ? Collections.emptySet() : EnumSet.copyOf(columns);
+    switch (format) {
+      case TEXT:
+        out.write("Name (Priority)\tAssignment (Value)\n");
+        for(int p = 0; p < rows.count(); p++) {
+          writeText(rows, p, out);
+        }
+        break;
+      case JSON_LINES:
+        for(int p = 0; p < rows.count(); p++) {
+          writeJson(rows, p, out, columns);
+        }
+        break;
+      default:
+        char div = format == Format.TSV ? '\t' : ',';
+        out.write("Name" + div + "Priority" + div + "Assignment" + div + "Value");
+        for(Column c : columns) {
+          out.write(div);
+          out.write(c.header);
+        }
+        out.write('\n');
+        String[] itemFields = new String[rows.itemCount()];
+        for(int p = 0; p < rows.count(); p++) {
+          writeDelimited(rows, p, out, div, columns, itemFields);
+        }
+    }
+  }
+
+  private static void writeText(Rows rows, int p, Writer out) throws IOException {
+    out.write(rows.name(p));
+    out.write('(');
+    out.write(Integer.toString(rows.priority(p)));
+    out.write(")\t");
+    int j = rows.item(p);
+    if (j == -1) {
+      out.write(UNASSIGNED);
+    } else {
+      out.write(rows.itemName(j));
+      out.write(" (");
+      out.write(Integer.toString(rows.value(p)));
+      out.write(')');
+    }
+    out.write('\n');
+  }
+
+  /** Writes the row of person p; itemFields holds each item name as a field once it has been written. */
+  private static void writeDelimited(Rows rows, int p, Writer out, char div, Set<Column> columns,
+                                     String[] itemFields) throws IOException {
+    out.write(field(rows.name(p), div));
+    out.write(div);
+    out.write(Integer.toString(rows.priority(p)));
+    out.write(div);
+    int j = rows.item(p);
+    if (j == -1) {
+      out.write(UNASSIGNED);
+      if (! columns.isEmpty()) {
+        for(int k = 0; k <= columns.size(); k++) {
+          out.write(div);
+        }
+      }
+    } else {
+      if (itemFields[j] == null) {
+        itemFields[j] = field(rows.itemName(j), div);
+      }
+      out.write(itemFields[j]);
+      out.write(div);
+      out.write(Integer.toString(rows.value(p)));
+      for(Column c : columns) {
+        out.write(div);
+        out.write(columnValue(rows, p, j, c));
+      }
+    }
+    out.write('\n');
+  }
+
+  /** A CSV or TSV field, quoted if it holds the delimiter, a quote or a line break. */
+  private static String field(String field, char div) {
+    for(int k = 0; k < field.length(); k++) {
+      char c = field.charAt(k);
+      if (c == div || c <= '"' && (c == '"' || c == '\n' || c == '\r')) {
+        return '"' + field.replace("\"", "\"\"") + '"';
+      }
+    }
+    return field;
+  }
+
+  private static void writeJson(Rows rows, int p, Writer out, Set<Column> columns) throws IOException {
+    out.write("{\"name\":");
+    writeJsonString(out, rows.name(p));
+    out.write(",\"priority\":");
+    out.write(Integer.toString(rows.priority(p)));
+    out.write(",\"assignment\":");
+    int j = rows.item(p);
+    if (j == -1) {
+      out.write("null,\"value\":null");
+      for(Column c : columns) {
+        out.write(",\"" + c.key + "\":null");
+      }
+    } else {
+      writeJsonString(out, rows.itemName(j));
+      out.write(",\"value\":");
+      out.write(Integer.toString(rows.value(p)));
+      for(Column c : columns) {
+        out.write(",\"" + c.key + "\":");
+        out.write(columnValue(rows, p, j, c));
+      }
+    }
+    out.write("}\n");
+  }
+
+  private static void writeJsonString(Writer out, String s) throws IOException {
+    out.write('"');
+    for(int k = 0; k < s.length(); k++) {
+      char c = s.charAt(k);
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      } else if (c < 0x20) {
+        out.write(String.format("\\u%04x", (int) c));
+      } else {
+        out.write(c);
+      }
+    }
+    out.write('"');
+  }
+
+  private static String columnValue(Rows rows, int p, int j, Column c) {
+    switch (c) {
+      case RANK: return Integer.toString(rows.rank(p) + 1);
+      case SCORE: return Double.toString(rows.score(p));
+      default: return Double.toString(rows.fillRate(j));
+    }
+  }
+}
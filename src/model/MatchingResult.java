@@ -0,0 +1,137 @@
+package model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index of the matching of an APPModel, built once per match so that showing and exporting it
+ * never searches the Matching: the item, rank and preference value each person got, the enrollment
+ * of each item, and how many people got each rank. People and items are numbered in model order,
+ * and looked up by name through personId and itemId.
+ *
+ * @author Mshnik
+ */
+public final class MatchingResult {
+
+  private final Person[] people;
+  private final Item[] items;
+  private final Map<String, Integer> personIds;
+  private final Map<String, Integer> itemIds;
+
+  private final int[] matchedItem;
+  private final int[] value;
+  private final int[] rank;
+  private final int[] enrollment;
+  private final int[] rankCounts;
+  private final int matched;
+
+  /** Indexes the matching that assigns person p to items[matchedItem[p]], or nothing if that is -1. */
+  MatchingResult(Person[] people, Item[] items, int[] matchedItem) {
+    this.people = people.clone();
+    this.items = items.clone();
+    this.matchedItem = matchedItem.clone();
+    personIds = new HashMap<>(people.length * 2);
+    for(int p = 0; p < people.length; p++) {
+      personIds.put(people[p].getName(), p);
+    }
+    itemIds = new HashMap<>(items.length * 2);
+    for(int j = 0; j < items.length; j++) {
+      itemIds.put(items[j].id(), j);
+    }
+
+    value = new int[people.length];
+    rank = new int[people.length];
+    enrollment = new int[items.length];
+    int ranks = 0;
+    int matched = 0;
+    for(int p = 0; p < people.length; p++) {
+      int j = matchedItem[p];
+      if (j == -1) {
+        rank[p] = -1;
+        continue;
+      }
+      Integer pref = people[p].getPreferences().get(items[j]);
+      value[p] = pref == null ? 0 : pref;
+      rank[p] = Math.max(0, people[p].getHighestPref() - value[p]);
+      ranks = Math.max(ranks, rank[p] + 1);
+      enrollment[j]++;
+      matched++;
+    }
+    this.matched = matched;
+    rankCounts = new int[ranks];
+    for(int p = 0; p < people.length; p++) {
+      if (rank[p] != -1) rankCounts[rank[p]]++;
+    }
+  }
+
+  public int getPeopleCount() {
+    return people.length;
+  }
+
+  public int getItemCount() {
+    return items.length;
+  }
+
+  public Person getPerson(int p) {
+    return people[p];
+  }
+
+  public Item getItem(int j) {
+    return items[j];
+  }
+
+  /** Returns the index of the person with the given name, or -1 if there is none. */
+  public int personId(String name) {
+    Integer id = personIds.get(name);
+    return id == null ? -1 : id;
+  }
+
+  /** Returns the index of the item with the given name, or -1 if there is none. */
+  public int itemId(String name) {
+    Integer id = itemIds.get(name);
+    return id == null ? -1 : id;
+  }
+
+  /** Index of the item person p got, or -1 if p is unassigned. */
+  public int getMatchedItem(int p) {
+    return matchedItem[p];
+  }
+
+  /** The item person p got, or null if p is unassigned. */
+  public Item getAssignedItem(int p) {
+    return matchedItem[p] == -1 ? null : items[matchedItem[p]];
+  }
+
+  /** Preference value person p has for the item it got, or 0 if p is unassigned. */
+  public int getValue(int p) {
+    return value[p];
+  }
+
+  /** 0-based rank of the item person p got among its choices, 0 being its first, or -1 if unassigned. */
+  public int getRank(int p) {
+    return rank[p];
+  }
+
+  /** Number of people assigned to item j. */
+  public int getEnrollment(int j) {
+    return enrollment[j];
+  }
+
+  public int getMatched() {
+    return matched;
+  }
+
+  public int getUnassigned() {
+    return people.length - matched;
+  }
+
+  /** Number of people assigned their choice at the given 0-based rank: 0 is a first choice. */
+  public int getRankCount(int rank) {
+    return rank < rankCounts.length ? rankCounts[rank] : 0;
+  }
+
+  /** One more than the lowest rank anyone was assigned. */
+  public int getRanks() {
+    return rankCounts.length;
+  }
+}
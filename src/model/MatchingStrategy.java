@@ -0,0 +1,40 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How APPModel.match() assigns people to items.
+ *
+ * OPTIMAL finds a max-cardinality, max-value matching under the ValueFunc. TOP_CHOICES finds one of
+ * the same size and value on each person's top 3 choices, adding lower ones only where they are
+ * needed (see TruncatedGraph), and AUCTION and PARALLEL_AUCTION by way of AuctionMatcher. For these APPModel
+ * keeps the solver, and repairs the matching after each edit rather than solving again.
+ * SERIAL_DICTATORSHIP is a quick preview: people pick in order of priority, and the ValueFunc is not
+ * used. Any other strategy is run from scratch on every match().
+ *
+ * @author Mshnik
+ */
+public interface MatchingStrategy {
+
+  MatchingStrategy OPTIMAL = new OptimalStrategy("Optimal", false, false, 0);
+  MatchingStrategy TOP_CHOICES = new OptimalStrategy("Optimal (top 3 choices first)", false, false, 3);
+  MatchingStrategy AUCTION = new OptimalStrategy("Optimal (auction)", true, false, 0);
+  MatchingStrategy PARALLEL_AUCTION = new OptimalStrategy("Optimal (parallel auction)", true, true, 0);
+  MatchingStrategy SERIAL_DICTATORSHIP = new SerialDictatorship();
+
+  /** The strategies above, in the order the GUI offers them. */
+  List<MatchingStrategy> BUILT_IN = Collections.unmodifiableList(
+      Arrays.asList(OPTIMAL, TOP_CHOICES, AUCTION, PARALLEL_AUCTION, SERIAL_DICTATORSHIP));
+
+  /**
+   * Matches the people of problem to its items, within capacities. Returns the item id each person
+   * got, by person id, or -1 for people left unassigned. The monitor, which may be null, may stop
+   * the match early, as long as the result is still feasible.
+   */
+  int[] match(CompiledProblem problem, MatchMonitor monitor);
+
+  /** True if match() always gives a max-cardinality, max-value matching. */
+  boolean isOptimal();
+}
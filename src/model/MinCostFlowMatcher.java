@@ -0,0 +1,825 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Max-cardinality, max-value matching of people to items, solved as a min-cost max-flow problem
+ * by successive shortest paths with node potentials (primal-dual). Edge costs are the negated
+ * weights of the CompiledProblem.
+ *
+ * Unlike Algorithm.maxValueMaxMatching, an item is a single node whose capacity is the capacity of
+ * its edge to the sink, so the network has (people + items + 2) nodes and one edge per ranked pair.
+ * Residual edges are implicit: source/sink edges are derived from the current assignment, and the
+ * reverse of a matched person-to-item edge is found through the per-item list of assigned people.
+ *
+ * The solver keeps its flow and potentials between calls to solve(), so after a person's choices or
+ * priority or an item's capacity changes it only repairs what the edit broke: the person (or the
+ * overflow of the item) is unassigned, each edge the edit left with a negative reduced cost is fixed
+ * by one bounded Dijkstra, cancelling a negative cycle if it finds one, and the usual phases augment
+ * whatever is left.
+ *
+ * @author Mshnik
+ */
+class MinCostFlowMatcher {
+
+  private static final long INF = Long.MAX_VALUE / 4;
+  private static final int REPORT_INTERVAL = 1024;
+  /** setValueFunc solves from scratch once the broken edges add up to more than 1/this of the objective. */
+  private static final int WARM_START_LIMIT = 100;
+
+  private final PreferenceGraph graph;
+  private final CompiledProblem problem;
+
+  private final int peopleCount;
+  private final int itemCount;
+  private final int source;
+  private final int sink;
+
+  private int layoutVersion;
+
+  private final int[] matchedItem;
+  private final int[] matchedEdge;
+  private final int[] load;
+  private final int[] itemHead;
+  private final int[] nextInItem;
+  private final int[] prevInItem;
+  private int matched;
+  private long objective;
+
+  private final long[] potential;
+  private final long[] dist;
+  private final long[] fixDist;
+  private final int[] touched;
+  private int touchedCount;
+  private final boolean[] dead;
+  private final boolean[] onPath;
+  private final int[] stackNode;
+  private final int[] stackIter;
+  private final int[] parent;
+  private final int[] parentEdge;
+  private final int[] pending;
+  private final boolean[] isPending;
+  private int pendingCount;
+
+  private long[] heapKey;
+  private int[] heapNode;
+  private int heapSize;
+
+  private boolean started;
+  private int augmentations;
+  private int cancelledCycles;
+  private int dijkstraRuns;
+  private long heapPops;
+  private long workerAllocatedBytes;
+
+  MinCostFlowMatcher(CompiledProblem problem) {
+    this(problem, problem);
+  }
+
+  /** Solves a graph that is never edited, such as a MappedScenario. */
+  MinCostFlowMatcher(PreferenceGraph graph) {
+    this(graph, null);
+  }
+
+  private MinCostFlowMatcher(PreferenceGraph graph, CompiledProblem problem) {
+    this.graph = graph;
+    this.problem = problem;
+    peopleCount = graph.getPeopleCount();
+    itemCount = graph.getItemCount();
+    source = peopleCount + itemCount;
+    sink = source + 1;
+    layoutVersion = graph.getLayoutVersion();
+
+    matchedItem = new int[peopleCount];
+    matchedEdge = new int[peopleCount];
+    Arrays.fill(matchedItem, -1);
+    load = new int[itemCount];
+    itemHead = new int[itemCount];
+    Arrays.fill(itemHead, -1);
+    nextInItem = new int[peopleCount];
+    prevInItem = new int[peopleCount];
+
+    int nodes = sink + 1;
+    potential = new long[nodes];
+    dist = new long[nodes];
+    fixDist = new long[nodes];
+    Arrays.fill(fixDist, INF);
+    touched = new int[nodes];
+    dead = new boolean[nodes];
+    onPath = new boolean[nodes];
+    stackNode = new int[nodes];
+    stackIter = new int[nodes];
+    heapKey = new long[Math.max(16, nodes)];
+    heapNode = new int[heapKey.length];
+    parent = new int[nodes];
+    parentEdge = new int[nodes];
+    pending = new int[nodes];
+    isPending = new boolean[nodes];
+  }
+
+  /**
+   * Runs successive shortest path phases until no augmenting path remains. If the problem was edited
+   * since the last call, the previous solution is repaired first instead of starting over.
+   */
+  void solve() {
+    solve(null);
+  }
+
+  /**
+   * As solve(), reporting to the monitor (if not null) after every phase and every REPORT_INTERVAL
+   * augmentations. Returns false if the monitor stopped the solver; the flow is then a min-cost flow
+   * of its size, and calling solve again carries on from it.
+   */
+  boolean solve(MatchMonitor monitor) {
+    if (! started) {
+      initPotentials();
+      started = true;
+    } else {
+      restoreOptimality();
+    }
+    while (shortestPaths()) {
+      if (! augmentAdmissible(monitor) || ! report(monitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean report(MatchMonitor monitor) {
+    return monitor == null || monitor.progress(matched, augmentations, objective / graph.getWeightScale());
+  }
+
+  /** Replaces person p in the problem, releasing whatever it was assigned. */
+  void updatePerson(int p, Person person) {
+    int old = matchedItem[p];
+    unassign(p);
+    problem.setPerson(p, person);
+    refreshEdges();
+    if (started) {
+      coverChoices(p);
+      if (old != -1) addPending(peopleCount + old);
+    }
+  }
+
+  /** Replaces item j in the problem, releasing people it no longer has room for. */
+  void updateItem(int j, Item item) {
+    problem.setItem(j, item);
+    while (load[j] > graph.capacity(j)) {
+      int q = itemHead[j];
+      unassign(q);
+      coverChoices(q);
+    }
+    if (started) addPending(peopleCount + j);
+  }
+
+  /** Item person p is assigned to, or -1. */
+  int getMatchedItem(int p) {
+    return matchedItem[p];
+  }
+
+  /** Edge person p is assigned along; only meaningful if getMatchedItem(p) != -1. */
+  int getMatchedEdge(int p) {
+    return matchedEdge[p];
+  }
+
+  int getMatchedCount() {
+    return matched;
+  }
+
+  /** Total weight of the current assignment, in the units of graph.getWeightScale(). */
+  long getObjective() {
+    return objective;
+  }
+
+  /**
+   * Starts from an assignment that is close to optimal, such as AuctionMatcher leaves, instead of
+   * from nothing. edge[p] is the edge person p is assigned by, or -1, and price[j] what a seat of
+   * item j costs, which becomes the negated potential of the item. People are then covered as in
+   * setValueFunc, and the next solve fixes whatever edges that leaves broken before it augments.
+   */
+  void start(int[] edge, long[] price) {
+    for(int p = 0; p < peopleCount; p++) {
+      if (edge[p] != -1) assign(p, graph.edgeItem(edge[p]), edge[p]);
+    }
+    Arrays.fill(potential, 0);
+    for(int j = 0; j < itemCount; j++) {
+      potential[peopleCount + j] = -price[j];
+      addPending(peopleCount + j);
+    }
+    for(int p = 0; p < peopleCount; p++) {
+      coverChoices(p);
+    }
+    started = true;
+  }
+
+  /** Starts from what an auction of the graph reaches (see AuctionMatcher), in parallel if asked. */
+  void startWithAuction(boolean parallel) {
+    AuctionMatcher auction = new AuctionMatcher(graph, parallel);
+    auction.solve();
+    start(auction.getAssignedEdges(), auction.getPrices());
+  }
+
+  /**
+   * Solves every connected component of the graph on a solver of its own, in parallel, and starts
+   * from their merged flow and potentials (see Components). Does nothing if the graph is connected.
+   */
+  void startWithComponents(MatchMonitor monitor) {
+    Components components = new Components(graph);
+    if (components.size() > 1) {
+      components.solve(monitor);
+      components.addWorkTo(this);
+      adopt(components.getEdges(), components.getPotentials());
+    }
+  }
+
+  /**
+   * Runs a Presolve of the graph, solves what it leaves, and starts from that together with the
+   * people it fixed. What is left is solved by components, or if topChoices is positive on the top
+   * choices of each person first (see TruncatedGraph). Pruned and dropped edges were never seen by
+   * the solver of what is left, nor were fixed people, whom adopt covers along with everyone else,
+   * and the next solve fixes the few edges that breaks. Falls back on startWithComponents if there
+   * is nothing to reduce or drop.
+   */
+  void startWithPresolve(MatchMonitor monitor, int topChoices) {
+    Presolve presolve = new Presolve(graph);
+    if (presolve.isEmpty() && topChoices <= 0) {
+      startWithComponents(monitor);
+      return;
+    }
+    MinCostFlowMatcher residual;
+    if (topChoices > 0) {
+      residual = TruncatedGraph.solve(presolve.getResidual(), topChoices, monitor);
+    } else {
+      residual = new MinCostFlowMatcher(presolve.getResidual());
+      residual.startWithComponents(monitor);
+      residual.solve(monitor);
+    }
+    addWork(residual);
+    adopt(presolve.getEdges(residual), presolve.getPotentials(residual));
+  }
+
+  /** Person p has more choices in the graph than before, as a TruncatedGraph grows. */
+  void choicesAdded(int p) {
+    if (started) coverChoices(p);
+  }
+
+  /**
+   * Starts from a flow and potentials found elsewhere: edge[p] is the edge person p is assigned by,
+   * or -1, and potential[v] the potential of node v. The potentials need only hold on the part of
+   * the graph they were found for: every person is covered again over all of its edges, and every
+   * node checked as after an edit, so the next solve fixes whatever edges they leave broken.
+   */
+  void adopt(int[] edge, long[] potential) {
+    for(int p = 0; p < peopleCount; p++) {
+      if (edge[p] != -1) assign(p, graph.edgeItem(edge[p]), edge[p]);
+    }
+    System.arraycopy(potential, 0, this.potential, 0, this.potential.length);
+    for(int p = 0; p < peopleCount; p++) {
+      coverChoices(p);
+    }
+    for(int j = 0; j < itemCount; j++) {
+      addPending(peopleCount + j);
+    }
+    started = true;
+  }
+
+  /**
+   * Switches the problem to another ValueFunc, keeping the assignment as a warm start. Potentials
+   * are scaled by how much the weight of the assignment changed, which leaves every source and sink
+   * edge as it was, and each person's potential is then set just high enough to cover its other
+   * choices. That can only break the edge back from a person's own item, by about as much as its
+   * weight moved, so the next solve fixes those edges in place (each one bounded Dijkstra over a
+   * small radius) rather than releasing the people and freeing seats at full items.
+   *
+   * That pays off for small changes, like a slider step. After a large one, repairing the broken
+   * edges one by one is slower than solving again, so the assignment is dropped instead.
+   */
+  void setValueFunc(ValueFunc valueFunc) {
+    long oldObjective = objective;
+    problem.setValueFunc(valueFunc);
+    objective = 0;
+    for(int p = 0; p < peopleCount; p++) {
+      if (matchedItem[p] != -1) objective += graph.edgeWeight(p, matchedEdge[p]);
+    }
+    if (! started) return;
+
+    if (oldObjective > 0 && objective > 0) {
+      double scale = ((double) objective) / oldObjective;
+      for(int v = 0; v < potential.length; v++) {
+        potential[v] = Math.round(potential[v] * scale);
+      }
+    }
+    long broken = 0;
+    for(int p = 0; p < peopleCount; p++) {
+      coverChoices(p);
+      int j = matchedItem[p];
+      if (j != -1) {
+        broken += Math.max(0, potential[p] - graph.edgeWeight(p, matchedEdge[p]) - potential[peopleCount + j]);
+      }
+    }
+    if (broken > objective / WARM_START_LIMIT) {
+      restart();
+    }
+  }
+
+  /** Drops the assignment, so the next solve starts from scratch. */
+  private void restart() {
+    for(int p = 0; p < peopleCount; p++) {
+      unassign(p);
+    }
+    while (pendingCount > 0) {
+      isPending[pending[--pendingCount]] = false;
+    }
+    started = false;
+  }
+
+  int getAugmentations() {
+    return augmentations;
+  }
+
+  int getCancelledCycles() {
+    return cancelledCycles;
+  }
+
+  /** Number of Dijkstra searches run, for phases, edge fixes and raiseSink. */
+  int getDijkstraRuns() {
+    return dijkstraRuns;
+  }
+
+  /** Number of nodes taken off the heap by those searches, stale entries included. */
+  long getHeapPops() {
+    return heapPops;
+  }
+
+  /**
+   * Bytes allocated on behalf of this solver by threads other than the one running it, such as the
+   * pool threads that solved components, or -1 if one of them could not count its own.
+   */
+  long getWorkerAllocatedBytes() {
+    return workerAllocatedBytes;
+  }
+
+  /**
+   * Adds the work counted by other, a solver whose result this one started from, to the counts of
+   * this one, so that they cover the whole solve.
+   */
+  void addWork(MinCostFlowMatcher other) {
+    augmentations += other.augmentations;
+    cancelledCycles += other.cancelledCycles;
+    dijkstraRuns += other.dijkstraRuns;
+    heapPops += other.heapPops;
+    addWorkerAllocatedBytes(other.workerAllocatedBytes);
+  }
+
+  void addWorkerAllocatedBytes(long bytes) {
+    workerAllocatedBytes = workerAllocatedBytes == -1 || bytes == -1 ? -1 : workerAllocatedBytes + bytes;
+  }
+
+  /** The item each person is assigned to, or -1, as a copy. */
+  int[] getMatchedItems() {
+    return matchedItem.clone();
+  }
+
+  /** Exact shortest distances from the source in the empty network, which is a DAG. */
+  private void initPotentials() {
+    Arrays.fill(potential, 0);
+    long[] minIn = new long[itemCount];
+    Arrays.fill(minIn, INF);
+    for(int p = 0; p < peopleCount; p++) {
+      for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+        int j = graph.edgeItem(e);
+        if (j != -1) {
+          minIn[j] = Math.min(minIn[j], -graph.edgeWeight(p, e));
+        }
+      }
+    }
+    long sinkPotential = 0;
+    for(int j = 0; j < itemCount; j++) {
+      potential[peopleCount + j] = minIn[j] == INF ? 0 : minIn[j];
+      sinkPotential = Math.min(sinkPotential, potential[peopleCount + j]);
+    }
+    potential[sink] = sinkPotential;
+  }
+
+  /**
+   * Dijkstra over reduced costs from the source, stopped once the sink is settled. Potentials are
+   * then advanced by min(dist, dist[sink]) so every shortest path consists of zero reduced cost edges.
+   * Returns false if the sink is unreachable, i.e. the flow is maximum.
+   */
+  private boolean shortestPaths() {
+    long sinkDist = distancesFromSource();
+    if (sinkDist == INF) return false;
+    advance(sinkDist);
+    return true;
+  }
+
+  /**
+   * Raises the potential of the sink over the source to gap, as further phases of a larger network
+   * would: by one Dijkstra, advancing potentials by min(dist, the rise). If the flow is maximum, the
+   * sink is unreachable and rises by all of it, so this solver's potentials can then sit alongside
+   * those of other solvers with the same gap (see Components).
+   */
+  void raiseSink(long gap) {
+    long rise = gap - (potential[sink] - potential[source]);
+    if (rise > 0) {
+      advance(Math.min(distancesFromSource(), rise));
+    }
+  }
+
+  /** Potential of node v over the source: v is a person, people + an item, or the source or sink after those. */
+  long getPotential(int v) {
+    return potential[v] - potential[source];
+  }
+
+  /** Distances in dist from the source, settled up to the sink; returns that of the sink. */
+  private long distancesFromSource() {
+    dijkstraRuns++;
+    Arrays.fill(dist, INF);
+    heapSize = 0;
+    dist[source] = 0;
+    push(source, 0);
+
+    while (heapSize > 0) {
+      long d = heapKey[0];
+      int u = pop();
+      if (d > dist[u]) continue;
+      if (u == sink) break;
+
+      if (u == source) {
+        for(int p = 0; p < peopleCount; p++) {
+          if (matchedItem[p] == -1) {
+            relax(p, d + potential[source] - potential[p]);
+          }
+        }
+      } else if (u < peopleCount) {
+        for(int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+          int j = graph.edgeItem(e);
+          if (j != -1 && j != matchedItem[u]) {
+            int v = peopleCount + j;
+            relax(v, d - graph.edgeWeight(u, e) + potential[u] - potential[v]);
+          }
+        }
+      } else {
+        int j = u - peopleCount;
+        if (load[j] < graph.capacity(j)) {
+          relax(sink, d + potential[u] - potential[sink]);
+        }
+        for(int q = itemHead[j]; q != -1; q = nextInItem[q]) {
+          relax(q, d + graph.edgeWeight(q, matchedEdge[q]) + potential[u] - potential[q]);
+        }
+      }
+    }
+
+    return dist[sink];
+  }
+
+  private void advance(long bound) {
+    for(int v = 0; v < dist.length; v++) {
+      potential[v] += Math.min(dist[v], bound);
+    }
+  }
+
+  /** Picks up edge indices the problem may have moved. */
+  private void refreshEdges() {
+    if (layoutVersion != problem.getLayoutVersion()) {
+      layoutVersion = problem.getLayoutVersion();
+      for(int p = 0; p < peopleCount; p++) {
+        if (matchedItem[p] != -1) {
+          for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+            if (graph.edgeItem(e) == matchedItem[p]) {
+              matchedEdge[p] = e;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Fixes the edges the edits left with a negative reduced cost. A person whose potential was set
+   * to cover its choices can only break its edge from the source if it is free, or the edge back from
+   * its item if it is assigned, and freeing a seat only breaks the edge from that item to the sink.
+   * Adopted potentials may also have put an item with people in it above the sink, which breaks the
+   * edge back from the sink, as when Presolve filled it with fixed people.
+   */
+  private void restoreOptimality() {
+    while (pendingCount > 0) {
+      int v = pending[--pendingCount];
+      isPending[v] = false;
+      if (v < peopleCount) {
+        int j = matchedItem[v];
+        if (j == -1) {
+          if (potential[v] > potential[source]) {
+            fixEdge(v, source, potential[v] - potential[source]);
+          }
+        } else {
+          long reducedCost = graph.edgeWeight(v, matchedEdge[v]) + potential[peopleCount + j] - potential[v];
+          if (reducedCost < 0) {
+            fixEdge(v, peopleCount + j, -reducedCost);
+          }
+        }
+      } else {
+        int j = v - peopleCount;
+        while (load[j] < graph.capacity(j) && potential[v] < potential[sink]) {
+          fixEdge(sink, v, potential[sink] - potential[v]);
+        }
+        while (load[j] > 0 && potential[v] > potential[sink]) {
+          fixEdge(v, sink, potential[v] - potential[sink]);
+        }
+      }
+    }
+  }
+
+  private void addPending(int v) {
+    if (! isPending[v]) {
+      isPending[v] = true;
+      pending[pendingCount++] = v;
+    }
+  }
+
+  /**
+   * Sets the potential of person p just high enough that none of its unassigned choices has a
+   * negative reduced cost, and, if p is assigned, neither has its edge to the source.
+   */
+  private void coverChoices(int p) {
+    long pot = potential[source];
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      int j = graph.edgeItem(e);
+      if (j != -1 && j != matchedItem[p]) {
+        pot = Math.max(pot, graph.edgeWeight(p, e) + potential[peopleCount + j]);
+      }
+    }
+    potential[p] = pot;
+    addPending(p);
+  }
+
+  /**
+   * Repairs the residual edge (tail, head) whose reduced cost is -delta, by Dijkstra from head to
+   * tail over the edges that are not themselves broken. A path shorter than delta closes a negative
+   * cycle, which is cancelled; either way potentials advance by min(dist, bound) as in shortestPaths,
+   * which leaves the edge (or its reverse, once cancelled) with a non-negative reduced cost.
+   *
+   * Most fixes only reach a few nodes, so rather than advance every other node by bound, the nodes
+   * reached fall back by bound - dist instead (only differences of potentials matter), and fixDist
+   * is reset for them alone.
+   */
+  private void fixEdge(int head, int tail, long delta) {
+    dijkstraRuns++;
+    heapSize = 0;
+    touchedCount = 0;
+    touch(head, 0);
+    parent[head] = -1;
+    push(head, 0);
+
+    while (heapSize > 0) {
+      long d = heapKey[0];
+      int u = pop();
+      if (d > fixDist[u]) continue;
+      if (u == tail || d >= delta) break;
+
+      if (u == source) {
+        for(int p = 0; p < peopleCount; p++) {
+          if (matchedItem[p] == -1) {
+            reach(u, p, -1, d, potential[source] - potential[p]);
+          }
+        }
+      } else if (u == sink) {
+        for(int j = 0; j < itemCount; j++) {
+          if (load[j] > 0) {
+            reach(u, peopleCount + j, -1, d, potential[sink] - potential[peopleCount + j]);
+          }
+        }
+      } else if (u < peopleCount) {
+        for(int e = graph.edgeStart(u); e < graph.edgeEnd(u); e++) {
+          int j = graph.edgeItem(e);
+          if (j != -1 && j != matchedItem[u]) {
+            int v = peopleCount + j;
+            reach(u, v, e, d, potential[u] - potential[v] - graph.edgeWeight(u, e));
+          }
+        }
+        if (matchedItem[u] != -1) {
+          reach(u, source, -1, d, potential[u] - potential[source]);
+        }
+      } else {
+        int j = u - peopleCount;
+        if (load[j] < graph.capacity(j)) {
+          reach(u, sink, -1, d, potential[u] - potential[sink]);
+        }
+        for(int q = itemHead[j]; q != -1; q = nextInItem[q]) {
+          reach(u, q, -1, d, graph.edgeWeight(q, matchedEdge[q]) + potential[u] - potential[q]);
+        }
+      }
+    }
+
+    long bound = Math.min(fixDist[tail], delta);
+    boolean isCycle = fixDist[tail] < delta;
+    for(int k = 0; k < touchedCount; k++) {
+      int v = touched[k];
+      potential[v] -= bound - Math.min(fixDist[v], bound);
+      fixDist[v] = INF;
+    }
+    if (isCycle) {
+      cancelCycle(tail);
+    }
+  }
+
+  private void reach(int u, int v, int e, long d, long reducedCost) {
+    if (reducedCost >= 0 && d + reducedCost < fixDist[v]) {
+      touch(v, d + reducedCost);
+      parent[v] = u;
+      parentEdge[v] = e;
+      push(v, d + reducedCost);
+    }
+  }
+
+  private void touch(int v, long d) {
+    if (fixDist[v] == INF) touched[touchedCount++] = v;
+    fixDist[v] = d;
+  }
+
+  /**
+   * Pushes one unit along the parent links from the given node back to the root of the last fixEdge,
+   * which together with the broken edge is a cycle. Only the people on it need to change: each moves
+   * to the item after it, or is released if the source follows.
+   */
+  private void cancelCycle(int end) {
+    for(int v = end; parent[v] != -1; v = parent[v]) {
+      int u = parent[v];
+      if (u < peopleCount) {
+        if (v == source) {
+          unassign(u);
+        } else {
+          assign(u, v - peopleCount, parentEdge[v]);
+        }
+      }
+    }
+    cancelledCycles++;
+  }
+
+  private void relax(int v, long d) {
+    if (d < dist[v]) {
+      dist[v] = d;
+      push(v, d);
+    }
+  }
+
+  /**
+   * Augments along zero reduced cost paths from free people until none remain, as a DFS over the
+   * admissible subgraph. Nodes that fail to reach the sink are marked dead for the rest of the phase.
+   * Returns false if the monitor stopped it, which is safe between augmentations.
+   */
+  private boolean augmentAdmissible(MatchMonitor monitor) {
+    Arrays.fill(dead, false);
+    for(int p = 0; p < peopleCount; p++) {
+      if (matchedItem[p] == -1 && potential[source] == potential[p] && !dead[p]) {
+        if (augmentFrom(p) && augmentations % REPORT_INTERVAL == 0 && ! report(monitor)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stack entries alternate person, item, person, item... For a person, stackIter is the edge being
+   * tried. For an item, it is the next assigned person to try, -1 when exhausted, and -2 before the
+   * sink edge has been checked.
+   */
+  private boolean augmentFrom(int start) {
+    int top = 0;
+    stackNode[0] = start;
+    stackIter[0] = graph.edgeStart(start);
+    onPath[start] = true;
+
+    while (top >= 0) {
+      int u = stackNode[top];
+      int next = -1;
+      if (u < peopleCount) {
+        for(int e = stackIter[top]; e < graph.edgeEnd(u); e++) {
+          int j = graph.edgeItem(e);
+          int v = peopleCount + j;
+          if (j != -1 && j != matchedItem[u] && !dead[v] && !onPath[v]
+              && potential[u] - potential[v] == graph.edgeWeight(u, e)) {
+            stackIter[top] = e;
+            next = v;
+            break;
+          }
+        }
+        if (next != -1) {
+          top++;
+          stackNode[top] = next;
+          stackIter[top] = -2;
+          onPath[next] = true;
+          continue;
+        }
+      } else {
+        int j = u - peopleCount;
+        if (stackIter[top] == -2) {
+          if (load[j] < graph.capacity(j) && potential[u] == potential[sink]) {
+            applyPath(top);
+            return true;
+          }
+          stackIter[top] = itemHead[j];
+        }
+        for(int q = stackIter[top]; q != -1; q = nextInItem[q]) {
+          if (!dead[q] && !onPath[q] && graph.edgeWeight(q, matchedEdge[q]) + potential[u] == potential[q]) {
+            stackIter[top] = nextInItem[q];
+            next = q;
+            break;
+          }
+        }
+        if (next != -1) {
+          top++;
+          stackNode[top] = next;
+          stackIter[top] = graph.edgeStart(next);
+          onPath[next] = true;
+          continue;
+        }
+      }
+      onPath[u] = false;
+      dead[u] = true;
+      top--;
+      if (top >= 0 && stackNode[top] < peopleCount) {
+        stackIter[top]++;
+      }
+    }
+    return false;
+  }
+
+  /** Moves every person on the stack to the item after it, so only the last item gains load. */
+  private void applyPath(int top) {
+    for(int k = 0; k < top; k += 2) {
+      int p = stackNode[k];
+      int e = stackIter[k];
+      assign(p, graph.edgeItem(e), e);
+    }
+    for(int k = 0; k <= top; k++) {
+      onPath[stackNode[k]] = false;
+    }
+    augmentations++;
+  }
+
+  private void assign(int p, int j, int e) {
+    unassign(p);
+    matchedItem[p] = j;
+    matchedEdge[p] = e;
+    prevInItem[p] = -1;
+    nextInItem[p] = itemHead[j];
+    if (itemHead[j] != -1) prevInItem[itemHead[j]] = p;
+    itemHead[j] = p;
+    load[j]++;
+    matched++;
+    objective += graph.edgeWeight(p, e);
+  }
+
+  private void unassign(int p) {
+    int old = matchedItem[p];
+    if (old != -1) {
+      if (prevInItem[p] == -1) itemHead[old] = nextInItem[p];
+      else nextInItem[prevInItem[p]] = nextInItem[p];
+      if (nextInItem[p] != -1) prevInItem[nextInItem[p]] = prevInItem[p];
+      load[old]--;
+      matchedItem[p] = -1;
+      matched--;
+      objective -= graph.edgeWeight(p, matchedEdge[p]);
+    }
+  }
+
+  private void push(int node, long key) {
+    if (heapSize == heapKey.length) {
+      heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+      heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+    }
+    int i = heapSize++;
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (heapKey[parent] <= key) break;
+      heapKey[i] = heapKey[parent];
+      heapNode[i] = heapNode[parent];
+      i = parent;
+    }
+    heapKey[i] = key;
+    heapNode[i] = node;
+  }
+
+  private int pop() {
+    heapPops++;
+    int result = heapNode[0];
+    heapSize--;
+    long key = heapKey[heapSize];
+    int node = heapNode[heapSize];
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) break;
+      if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) child++;
+      if (heapKey[child] >= key) break;
+      heapKey[i] = heapKey[child];
+      heapNode[i] = heapNode[child];
+      i = child;
+    }
+    heapKey[i] = key;
+    heapNode[i] = node;
+    return result;
+  }
+}
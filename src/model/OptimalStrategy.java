@@ -0,0 +1,73 @@
+package model;
+
+/**
+ * The max-cardinality, max-value strategies of MatchingStrategy: MinCostFlowMatcher from the merged
+ * solutions of the connected components of what Presolve leaves (see Components), from a solution of
+ * it on the top choices of each person (see TruncatedGraph), or from where an AuctionMatcher gets to.
+ * APPModel takes the solver from start() and keeps it for repairs; match() is a one-off solve.
+ *
+ * @author Mshnik
+ */
+final class OptimalStrategy implements MatchingStrategy {
+
+  private final String name;
+  private final boolean auction;
+  private final boolean parallel;
+  /** If positive, the flow is solved on this many top choices of each person first. */
+  private final int topChoices;
+
+  OptimalStrategy(String name, boolean auction, boolean parallel, int topChoices) {
+    this.name = name;
+    this.auction = auction;
+    this.parallel = parallel;
+    this.topChoices = topChoices;
+  }
+
+  /**
+   * A solver for problem, started as this strategy starts it; solve() then finds the matching. The
+   * monitor, which may be null, can stop the components early, as it would stop solve().
+   */
+  MinCostFlowMatcher start(CompiledProblem problem, MatchMonitor monitor) {
+    return start(new MinCostFlowMatcher(problem), monitor);
+  }
+
+  private MinCostFlowMatcher start(MinCostFlowMatcher solver, MatchMonitor monitor) {
+    if (auction) {
+      solver.startWithAuction(parallel);
+    } else {
+      solver.startWithPresolve(monitor, topChoices);
+    }
+    return solver;
+  }
+
+  /** As match(problem, monitor), on any graph, ending the presolve and solve phases of stats if not null. */
+  int[] matchGraph(PreferenceGraph graph, MatchMonitor monitor, MatchStats stats) {
+    MinCostFlowMatcher solver = start(new MinCostFlowMatcher(graph), monitor);
+    if (stats != null) stats.presolved();
+    boolean complete = solver.solve(monitor);
+    if (stats != null) {
+      stats.solved(complete);
+      stats.workAfter(solver);
+    }
+    int[] matchedItem = new int[graph.getPeopleCount()];
+    for(int p = 0; p < matchedItem.length; p++) {
+      matchedItem[p] = solver.getMatchedItem(p);
+    }
+    return matchedItem;
+  }
+
+  @Override
+  public int[] match(CompiledProblem problem, MatchMonitor monitor) {
+    return matchGraph(problem, monitor, null);
+  }
+
+  @Override
+  public boolean isOptimal() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
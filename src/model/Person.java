@@ -14,6 +14,8 @@ import java.util.*;
  */
 public class Person extends Tuple2<String,Integer> implements RankedAgent<Item>, Serializable {
 
+  private static final long serialVersionUID = -7107872425178074047L;
+
   private Map<Item, Integer> prefs;
   private int highestPref;
 
@@ -37,12 +39,36 @@ public class Person extends Tuple2<String,Integer> implements RankedAgent<Item>,
     return this;
   }
 
+  /**
+   * Sets the choices, best first: the last gets preference 1, the one before it 2, and so on. A null
+   * entry is a gap, which uses up its preference value without naming an item, as left by removeItem.
+   */
   public Person setPreferences(List<Item> preferences) {
     prefs.clear();
+    highestPref = 0;
     for(int i = 0; i < preferences.size(); i++) {
-      prefs.put(preferences.get(i), preferences.size() - i);
+      if (preferences.get(i) != null) {
+        prefs.put(preferences.get(i), preferences.size() - i);
+        highestPref = Math.max(highestPref, preferences.size() - i);
+      }
+    }
+    return this;
+  }
+
+  /** Moves the preference for old, if any, over to replacement. Used when an item is recreated. */
+  public Person replaceItem(Item old, Item replacement) {
+    Integer val = prefs.remove(old);
+    if (val != null) {
+      prefs.put(replacement, val);
+    }
+    return this;
+  }
+
+  /** Drops the preference for the given item, if any. Used when an item is removed. */
+  public Person removeItem(Item item) {
+    if (prefs.remove(item) != null) {
+      highestPref = prefs.values().stream().mapToInt((x) -> x).max().orElse(0);
     }
-    highestPref = preferences.size();
     return this;
   }
 
@@ -0,0 +1,39 @@
+package model;
+
+/**
+ * The bipartite graph the solvers work on: people and items by dense id, and the ranked choices of
+ * each person as a run of edges, best first. Implemented on heap arrays by CompiledProblem and on a
+ * mapped scenario file by MappedScenario.
+ *
+ * @author Mshnik
+ */
+interface PreferenceGraph {
+
+  int getPeopleCount();
+
+  int getItemCount();
+
+  int capacity(int item);
+
+  int priority(int p);
+
+  /** First edge of person p. */
+  int edgeStart(int p);
+
+  /** One past the last edge of person p. */
+  int edgeEnd(int p);
+
+  /** Item at the end of edge e, or -1 if e is an empty slot in its person's list. */
+  int edgeItem(int e);
+
+  /** Preference value person p gave the item of edge e, as in Person.getPreferences(). */
+  int edgeValue(int p, int e);
+
+  /** Weight of edge e of person p, in units of 1 / getWeightScale() of ValueFunc output. */
+  long edgeWeight(int p, int e);
+
+  double getWeightScale();
+
+  /** Changes whenever edges move to new indices. */
+  int getLayoutVersion();
+}
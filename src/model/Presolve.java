@@ -0,0 +1,276 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Reductions of a PreferenceGraph that every max-cardinality, max-value matching allows, found
+ * before solving so that the solver gets a smaller problem.
+ *
+ * Both come from items that can never fill: those with no more people choosing them than they have
+ * room for. Whatever else happens, a person can always move to such an item. So a person whose best
+ * edge goes to one is fixed there, since some optimal matching does that; and any edge of a person
+ * weighing less than their best edge to one is pruned, since no optimal matching uses it. Edges to
+ * items without room are pruned as well. Fixing takes room and pruning takes choosers, so it repeats
+ * for up to MAX_PASSES passes, while it finds anything.
+ *
+ * What is left, getResidual(), has the people who were not fixed and still have choices, every item
+ * with the room left, and only the edges that were not pruned. Its optimal matching together with the
+ * fixed people is optimal for the whole graph.
+ *
+ * @author Mshnik
+ */
+final class Presolve {
+
+  /** Most passes over the edges. Later passes find less and less. */
+  private static final int MAX_PASSES = 4;
+
+  private final PreferenceGraph graph;
+  private final int peopleCount;
+  private final int itemCount;
+
+  private final boolean[] pruned;
+  private final int[] fixedEdge;
+  private final int[] room;
+  private final Residual residual;
+  private int fixedCount;
+  private int prunedCount;
+
+  Presolve(PreferenceGraph graph) {
+    this.graph = graph;
+    peopleCount = graph.getPeopleCount();
+    itemCount = graph.getItemCount();
+
+    int edges = 0;
+    for(int p = 0; p < peopleCount; p++) {
+      edges = Math.max(edges, graph.edgeEnd(p));
+    }
+    pruned = new boolean[edges];
+    fixedEdge = new int[peopleCount];
+    Arrays.fill(fixedEdge, -1);
+    room = new int[itemCount];
+    for(int j = 0; j < itemCount; j++) {
+      room[j] = Math.max(0, graph.capacity(j));
+    }
+
+    int[] choosers = new int[itemCount];
+    boolean changed = true;
+    for(int pass = 0; pass < MAX_PASSES && changed; pass++) {
+      changed = false;
+      Arrays.fill(choosers, 0);
+      for(int p = 0; p < peopleCount; p++) {
+        if (fixedEdge[p] != -1) continue;
+        for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+          int j = graph.edgeItem(e);
+          if (j == -1 || pruned[e]) continue;
+          if (room[j] == 0) {
+            prune(e);
+            changed = true;
+          } else {
+            choosers[j]++;
+          }
+        }
+      }
+      for(int p = 0; p < peopleCount; p++) {
+        if (fixedEdge[p] == -1) {
+          changed |= reduce(p, choosers);
+        }
+      }
+    }
+
+    residual = new Residual();
+  }
+
+  /**
+   * Fixes person p or prunes its edges, given how many people choose each item. Items counted as
+   * never filling stay that way as people are fixed to them, as each fixed person was counted.
+   */
+  private boolean reduce(int p, int[] choosers) {
+    long best = Long.MIN_VALUE;
+    long bestOpen = Long.MIN_VALUE;
+    int openEdge = -1;
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      int j = graph.edgeItem(e);
+      if (j == -1 || pruned[e]) continue;
+      long w = graph.edgeWeight(p, e);
+      best = Math.max(best, w);
+      if (choosers[j] <= room[j] && w > bestOpen) {
+        bestOpen = w;
+        openEdge = e;
+      }
+    }
+    if (openEdge == -1) return false;
+    if (bestOpen == best) {
+      fixedEdge[p] = openEdge;
+      room[graph.edgeItem(openEdge)]--;
+      fixedCount++;
+      return true;
+    }
+    boolean changed = false;
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      if (graph.edgeItem(e) != -1 && ! pruned[e] && graph.edgeWeight(p, e) < bestOpen) {
+        prune(e);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private int choices(int p) {
+    int choices = 0;
+    for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+      if (graph.edgeItem(e) != -1 && ! pruned[e]) choices++;
+    }
+    return choices;
+  }
+
+  private void prune(int e) {
+    pruned[e] = true;
+    prunedCount++;
+  }
+
+  /** True if nothing was fixed or pruned, and no one left out. */
+  boolean isEmpty() {
+    return fixedCount == 0 && prunedCount == 0 && residual.people.length == peopleCount;
+  }
+
+  int getFixedCount() {
+    return fixedCount;
+  }
+
+  int getPrunedCount() {
+    return prunedCount;
+  }
+
+  /**
+   * The problem left to solve, copied into arrays of its own so the solver does not look through
+   * this on every edge. People and edges are numbered from 0; items keep their numbers.
+   */
+  PreferenceGraph getResidual() {
+    return residual;
+  }
+
+  /** The edge each person of the whole graph is assigned by, given a solver of getResidual(), or -1. */
+  int[] getEdges(MinCostFlowMatcher solver) {
+    int[] edge = fixedEdge.clone();
+    for(int k = 0; k < residual.people.length; k++) {
+      edge[residual.people[k]] = solver.getMatchedItem(k) == -1 ? -1 : residual.edge[solver.getMatchedEdge(k)];
+    }
+    return edge;
+  }
+
+  /**
+   * Potentials for every node of the whole graph, given a solver of getResidual(): those of its nodes,
+   * and the source's for fixed people and everyone else left out. They do not cover fixed people or
+   * pruned edges, and an item fixed people filled may sit above the sink, so they are only a start for
+   * MinCostFlowMatcher.adopt, which covers every person again and checks every item.
+   */
+  long[] getPotentials(MinCostFlowMatcher solver) {
+    int residualCount = residual.people.length;
+    long[] potential = new long[peopleCount + itemCount + 2];
+    for(int k = 0; k < residualCount; k++) {
+      potential[residual.people[k]] = solver.getPotential(k);
+    }
+    for(int v = 0; v < itemCount + 2; v++) {
+      potential[peopleCount + v] = solver.getPotential(residualCount + v);
+    }
+    return potential;
+  }
+
+  /** The graph without fixed people or pruned edges, and with the room fixed people took. */
+  private class Residual implements PreferenceGraph {
+    /** Person of the graph each person here is, and likewise edges. */
+    private final int[] people;
+    private final int[] edge;
+    private final int[] start;
+    private final int[] item;
+    private final long[] weight;
+
+    Residual() {
+      int peopleLeft = 0;
+      int edgesLeft = 0;
+      for(int p = 0; p < peopleCount; p++) {
+        int choices = fixedEdge[p] == -1 ? choices(p) : 0;
+        if (choices > 0) {
+          peopleLeft++;
+          edgesLeft += choices;
+        }
+      }
+      people = new int[peopleLeft];
+      start = new int[peopleLeft + 1];
+      edge = new int[edgesLeft];
+      item = new int[edgesLeft];
+      weight = new long[edgesLeft];
+      int k = 0;
+      int f = 0;
+      for(int p = 0; p < peopleCount; p++) {
+        if (fixedEdge[p] != -1 || choices(p) == 0) continue;
+        people[k] = p;
+        for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+          int j = graph.edgeItem(e);
+          if (j != -1 && ! pruned[e]) {
+            edge[f] = e;
+            item[f] = j;
+            weight[f] = graph.edgeWeight(p, e);
+            f++;
+          }
+        }
+        start[++k] = f;
+      }
+    }
+
+    @Override
+    public int getPeopleCount() {
+      return people.length;
+    }
+
+    @Override
+    public int getItemCount() {
+      return itemCount;
+    }
+
+    @Override
+    public int capacity(int item) {
+      return room[item];
+    }
+
+    @Override
+    public int priority(int p) {
+      return graph.priority(people[p]);
+    }
+
+    @Override
+    public int edgeStart(int p) {
+      return start[p];
+    }
+
+    @Override
+    public int edgeEnd(int p) {
+      return start[p + 1];
+    }
+
+    @Override
+    public int edgeItem(int e) {
+      return item[e];
+    }
+
+    @Override
+    public int edgeValue(int p, int e) {
+      return graph.edgeValue(people[p], edge[e]);
+    }
+
+    @Override
+    public long edgeWeight(int p, int e) {
+      return weight[e];
+    }
+
+    @Override
+    public double getWeightScale() {
+      return graph.getWeightScale();
+    }
+
+    @Override
+    public int getLayoutVersion() {
+      return 0;
+    }
+  }
+}
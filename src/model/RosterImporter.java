@@ -0,0 +1,289 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reads items or people from CSV or TSV text straight into an APPModel, one record at a time.
+ *
+ * Item rows are "name,capacity" and people rows "name,priority,choice1,choice2,...", best choice
+ * first. The delimiter is a tab if the first line has one, a comma otherwise, and fields may be
+ * quoted as in Excel's CSV output. A first row whose number column does not parse is taken as a
+ * header. Rows that are malformed (bad numbers, unknown or repeated choices, names seen earlier in
+ * the same file) are skipped and reported; everything else is added to the model, or replaces the
+ * entry of the same name through setItemCapacity and updatePerson. Each file is read in one batch
+ * of the model (see APPModel.beginBatch), so a matched model catches up once rather than per row.
+ *
+ * @author Mshnik
+ */
+public class RosterImporter {
+
+  /** At most this many row errors are kept in a Result; the rest are only counted. */
+  public static final int MAX_REPORTED_ERRORS = 100;
+
+  private RosterImporter() {}
+
+  /** A row that was skipped, and why. */
+  public static class RowError {
+    public final int line;
+    public final String message;
+
+    RowError(int line, String message) {
+      this.line = line;
+      this.message = message;
+    }
+
+    public String toString() {
+      return "line " + line + ": " + message;
+    }
+  }
+
+  /** What an import did: the rows it took, and the first MAX_REPORTED_ERRORS rows it did not. */
+  public static class Result {
+    private int imported;
+    private int errorCount;
+    private final List<RowError> errors = new ArrayList<>();
+
+    private void error(int line, String message) {
+      errorCount++;
+      if (errors.size() < MAX_REPORTED_ERRORS) {
+        errors.add(new RowError(line, message));
+      }
+    }
+
+    public int getImported() {
+      return imported;
+    }
+
+    public int getErrorCount() {
+      return errorCount;
+    }
+
+    public List<RowError> getErrors() {
+      return Collections.unmodifiableList(errors);
+    }
+
+    public String toString() {
+      return imported + " rows imported, " + errorCount + " rows skipped";
+    }
+  }
+
+  public static Result importItems(APPModel model, Path file) throws IOException {
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return importItems(model, in);
+    }
+  }
+
+  public static Result importPeople(APPModel model, Path file) throws IOException {
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return importPeople(model, in);
+    }
+  }
+
+  public static Result importItems(APPModel model, Reader in) throws IOException {
+    Result result = new Result();
+    RecordReader records = new RecordReader(in);
+    Set<String> seen = new HashSet<>();
+    List<String> row;
+    model.beginBatch();
+    try {
+      while ((row = records.next()) != null) {
+        String name = row.get(0);
+        if (name.isEmpty()) continue;
+        String capString = row.size() > 1 ? row.get(1) : "";
+        Integer cap = capString.isEmpty() ? Integer.valueOf(1) : parseInt(capString);
+        if (cap == null || cap < 0) {
+          if (records.isFirst()) continue;
+          result.error(records.getLine(), "capacity must be a non-negative integer, was " + capString);
+        } else if (! seen.add(name)) {
+          result.error(records.getLine(), "item " + name + " appears more than once");
+        } else {
+          model.setItemCapacity(name, cap);
+          result.imported++;
+        }
+      }
+    } finally {
+      model.commitBatch();
+    }
+    return result;
+  }
+
+  public static Result importPeople(APPModel model, Reader in) throws IOException {
+    Result result = new Result();
+    RecordReader records = new RecordReader(in);
+    Set<String> seen = new HashSet<>();
+    List<String> row;
+    List<String> prefs = new ArrayList<>();
+    Set<String> rowChoices = new HashSet<>();
+    model.beginBatch();
+    try {
+      rows:
+      while ((row = records.next()) != null) {
+        String name = row.get(0);
+        if (name.isEmpty()) continue;
+        String priorityString = row.size() > 1 ? row.get(1) : "";
+        Integer priority = priorityString.isEmpty() ? Integer.valueOf(0) : parseInt(priorityString);
+        if (priority == null) {
+          if (records.isFirst()) continue;
+          result.error(records.getLine(), "priority must be an integer, was " + priorityString);
+          continue;
+        }
+        if (! seen.add(name)) {
+          result.error(records.getLine(), "person " + name + " appears more than once");
+          continue;
+        }
+        prefs.clear();
+        rowChoices.clear();
+        for(int c = 2; c < row.size(); c++) {
+          String choice = row.get(c);
+          if (choice.isEmpty()) continue;
+          if (model.getItem(choice) == null) {
+            result.error(records.getLine(), "unknown item " + choice);
+            continue rows;
+          }
+          if (! rowChoices.add(choice)) {
+            result.error(records.getLine(), "item " + choice + " is chosen more than once");
+            continue rows;
+          }
+          prefs.add(choice);
+        }
+        model.updatePerson(name, priority, prefs);
+        result.imported++;
+      }
+    } finally {
+      model.commitBatch();
+    }
+    return result;
+  }
+
+  private static Integer parseInt(String s) {
+    try {
+      return Integer.parseInt(s);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Splits CSV or TSV text into records, reusing one field list. Quoted fields may contain the
+   * delimiter, line breaks and doubled quotes; unquoted fields are trimmed.
+   */
+  private static class RecordReader {
+    private final Reader in;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private char delimiter;
+    private int line;
+    private int nextLine = 1;
+    private int records;
+    private int pushedBack = -2;
+
+    RecordReader(Reader in) {
+      this.in = in.markSupported() ? in : new BufferedReader(in);
+    }
+
+    /** Line the last record started on. */
+    int getLine() {
+      return line;
+    }
+
+    boolean isFirst() {
+      return records == 1;
+    }
+
+    private int read() throws IOException {
+      if (pushedBack != -2) {
+        int c = pushedBack;
+        pushedBack = -2;
+        return c;
+      }
+      return in.read();
+    }
+
+    /** Returns the fields of the next non-blank record, or null at the end of the input. */
+    List<String> next() throws IOException {
+      while (true) {
+        fields.clear();
+        field.setLength(0);
+        line = nextLine;
+        if (delimiter == 0) {
+          delimiter = detectDelimiter();
+        }
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        int c = read();
+        if (c == -1) return null;
+        while (true) {
+          if (quoted) {
+            if (c == -1) {
+              quoted = false;
+              continue;
+            }
+            if (c == '"') {
+              int d = read();
+              if (d == '"') {
+                field.append('"');
+              } else {
+                quoted = false;
+                c = d;
+                continue;
+              }
+            } else {
+              if (c == '\n') nextLine++;
+              field.append((char) c);
+            }
+          } else if (c == '"' && field.toString().trim().isEmpty()) {
+            field.setLength(0);
+            quoted = true;
+            wasQuoted = true;
+          } else if (c == delimiter) {
+            endField(wasQuoted);
+            wasQuoted = false;
+          } else if (c == '\n' || c == '\r' || c == -1) {
+            if (c == '\r') {
+              int d = read();
+              if (d != '\n') pushedBack = d;
+            }
+            if (c != -1) nextLine++;
+            endField(wasQuoted);
+            break;
+          } else {
+            field.append((char) c);
+          }
+          c = read();
+        }
+        records++;
+        if (fields.size() > 1 || ! fields.get(0).isEmpty()) {
+          return fields;
+        }
+        records--;
+      }
+    }
+
+    private void endField(boolean wasQuoted) {
+      fields.add(wasQuoted ? field.toString() : field.toString().trim());
+      field.setLength(0);
+    }
+
+    /** Peeks at the first line, without consuming it, to choose between tab and comma. */
+    private char detectDelimiter() throws IOException {
+      in.mark(1 << 16);
+      char result = ',';
+      for(int i = 0; i < 1 << 16; i++) {
+        int c = in.read();
+        if (c == -1 || c == '\n' || c == '\r') break;
+        if (c == '\t') {
+          result = '\t';
+          break;
+        }
+      }
+      in.reset();
+      return result;
+    }
+  }
+}
@@ -0,0 +1,357 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary save format for an APPModel, read and written through NIO buffers.
+ *
+ * Everything is little-endian. A fixed header (magic, version, flags, counts, the ValueFunc
+ * parameters and the byte offset of every section) is followed by flat sections, each an int array
+ * except the string data:
+ *
+ *   capacity[items], priority[people], prefStart[people + 1], prefItem[slots],
+ *   stringStart[items + people + 1], matchedItem[people] (only if the matching was saved), string data
+ *
+ * Item j is named by string j and person p by string items + p, both UTF-8. The choices of person p
+ * are the slots [prefStart[p], prefStart[p + 1]), best first: slot k holds the item given preference
+ * value (slots - k), or -1 if there is none. Because every section sits at a known offset, a reader
+ * can also map the file and look entries up in place, which is what MappedScenario does.
+ *
+ * The flags say whether a matching was saved, whether it was complete, and whether the model weighs
+ * choices exactly (see APPModel.setExactWeights). Files without the last flag are read with the
+ * default weights, as they were written.
+ *
+ * @author Mshnik
+ */
+public class ScenarioIO {
+
+  public static final String EXTENSION = ".appm";
+
+  static final int MAGIC = 0x4D505041; // "APPM" in file order
+  static final int VERSION = 1;
+
+  static final int FLAG_MATCHING = 1;
+  static final int FLAG_MATCHING_COMPLETE = 2;
+  static final int FLAG_EXACT_WEIGHTS = 4;
+
+  static final int SECTION_CAPACITY = 0;
+  static final int SECTION_PRIORITY = 1;
+  static final int SECTION_PREF_START = 2;
+  static final int SECTION_PREF_ITEM = 3;
+  static final int SECTION_STRING_START = 4;
+  static final int SECTION_MATCHING = 5;
+  static final int SECTION_STRING_DATA = 6;
+  private static final int SECTIONS = 7;
+
+  static final int SECTION_TABLE = 48;
+  static final int HEADER_SIZE = SECTION_TABLE + 8 * SECTIONS;
+
+  private ScenarioIO() {}
+
+  /** Writes model to file, with its current matching if includeMatching is set and there is one. */
+  public static void write(APPModel model, Path file, boolean includeMatching) throws IOException {
+    List<Item> items = new ArrayList<>(model.getItems());
+    List<Person> people = new ArrayList<>(model.getPeople());
+    int itemCount = items.size();
+    int peopleCount = people.size();
+    Map<Item, Integer> itemIds = new HashMap<>(itemCount * 2);
+
+    int[] capacity = new int[itemCount];
+    byte[][] names = new byte[itemCount + peopleCount][];
+    for(int j = 0; j < itemCount; j++) {
+      Item i = items.get(j);
+      itemIds.put(i, j);
+      capacity[j] = i._2;
+      names[j] = i.id().getBytes(StandardCharsets.UTF_8);
+    }
+
+    int[] priority = new int[peopleCount];
+    int[] prefStart = new int[peopleCount + 1];
+    for(int p = 0; p < peopleCount; p++) {
+      Person person = people.get(p);
+      priority[p] = person.getPriority();
+      names[itemCount + p] = person.getName().getBytes(StandardCharsets.UTF_8);
+      prefStart[p + 1] = prefStart[p] + Math.max(0, person.getHighestPref());
+    }
+    int[] prefItem = new int[prefStart[peopleCount]];
+    for(int p = 0; p < peopleCount; p++) {
+      int start = prefStart[p];
+      int slots = prefStart[p + 1] - start;
+      Arrays.fill(prefItem, start, start + slots, -1);
+      for(Map.Entry<Item, Integer> entry : people.get(p).getPreferences().entrySet()) {
+        Integer j = itemIds.get(entry.getKey());
+        int value = entry.getValue();
+        if (j != null && value >= 1 && value <= slots) {
+          prefItem[start + slots - value] = j;
+        }
+      }
+    }
+
+    int[] stringStart = new int[names.length + 1];
+    for(int s = 0; s < names.length; s++) {
+      stringStart[s + 1] = stringStart[s] + names[s].length;
+    }
+
+    int[] matchedItem = null;
+    MatchingResult result = model.getMatchingResult();
+    boolean saveMatching = includeMatching && result != null;
+    if (saveMatching) {
+      matchedItem = new int[peopleCount];
+      for(int p = 0; p < peopleCount; p++) {
+        int q = result.personId(people.get(p).getName());
+        Item item = q == -1 ? null : result.getAssignedItem(q);
+        Integer j = item == null ? null : itemIds.get(model.getItem(item.id()));
+        matchedItem[p] = j == null ? -1 : j;
+      }
+    }
+
+    long[] offsets = new long[SECTIONS];
+    long at = HEADER_SIZE;
+    offsets[SECTION_CAPACITY] = at;
+    at += 4L * itemCount;
+    offsets[SECTION_PRIORITY] = at;
+    at += 4L * peopleCount;
+    offsets[SECTION_PREF_START] = at;
+    at += 4L * prefStart.length;
+    offsets[SECTION_PREF_ITEM] = at;
+    at += 4L * prefItem.length;
+    offsets[SECTION_STRING_START] = at;
+    at += 4L * stringStart.length;
+    offsets[SECTION_MATCHING] = saveMatching ? at : 0;
+    at += saveMatching ? 4L * peopleCount : 0;
+    offsets[SECTION_STRING_DATA] = at;
+    at += stringStart[names.length];
+    if (at > Integer.MAX_VALUE) {
+      throw new IOException("Model is too large to save in one file");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) at).order(ByteOrder.LITTLE_ENDIAN);
+    ValueFunc f = model.getValueFunc();
+    int flags = saveMatching ? (model.isMatchingComplete() ? FLAG_MATCHING | FLAG_MATCHING_COMPLETE : FLAG_MATCHING) : 0;
+    if (model.isExactWeights()) flags |= FLAG_EXACT_WEIGHTS;
+    buffer.putInt(MAGIC).putInt(VERSION)
+        .putInt(flags)
+        .putInt(itemCount).putInt(peopleCount).putInt(prefItem.length)
+        .putDouble(f.getPrefScaling()).putDouble(f.getPrefPower()).putDouble(f.getPriorityScaling());
+    for(long offset : offsets) {
+      buffer.putLong(offset);
+    }
+    putInts(buffer, offsets[SECTION_CAPACITY], capacity);
+    putInts(buffer, offsets[SECTION_PRIORITY], priority);
+    putInts(buffer, offsets[SECTION_PREF_START], prefStart);
+    putInts(buffer, offsets[SECTION_PREF_ITEM], prefItem);
+    putInts(buffer, offsets[SECTION_STRING_START], stringStart);
+    if (saveMatching) {
+      putInts(buffer, offsets[SECTION_MATCHING], matchedItem);
+    }
+    buffer.position((int) offsets[SECTION_STRING_DATA]);
+    for(byte[] name : names) {
+      buffer.put(name);
+    }
+    buffer.flip();
+
+    // Written beside the target and moved over it, so a MappedScenario of the old file never sees
+    // it truncated. On Windows the move fails while the old file is still mapped.
+    Path dir = file.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Reads a model, and its matching if one was saved, from a file written by write(). */
+  public static APPModel read(Path file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large");
+      buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+    }
+    buffer.flip();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    Header h = new Header(buffer);
+    int[] capacity = getInts(buffer, h.offsets[SECTION_CAPACITY], h.itemCount);
+    int[] priority = getInts(buffer, h.offsets[SECTION_PRIORITY], h.peopleCount);
+    int[] prefStart = getInts(buffer, h.offsets[SECTION_PREF_START], h.peopleCount + 1);
+    int[] prefItem = getInts(buffer, h.offsets[SECTION_PREF_ITEM], h.slotCount);
+    int[] stringStart = getInts(buffer, h.offsets[SECTION_STRING_START], h.itemCount + h.peopleCount + 1);
+    int[] matchedItem = h.hasMatching() ? getInts(buffer, h.offsets[SECTION_MATCHING], h.peopleCount) : null;
+    h.checkPreferences(IntBuffer.wrap(prefStart), IntBuffer.wrap(prefItem));
+    h.checkStrings(IntBuffer.wrap(stringStart), buffer.limit());
+    if (matchedItem != null) h.checkMatching(IntBuffer.wrap(matchedItem), IntBuffer.wrap(capacity));
+
+    byte[] data = buffer.array();
+    int dataStart = buffer.arrayOffset() + (int) h.offsets[SECTION_STRING_DATA];
+    APPModel model = new APPModel();
+    model.setValueFunc(h.valueFunc);
+    model.setExactWeights(h.isExactWeights());
+    String[] itemNames = new String[h.itemCount];
+    for(int j = 0; j < h.itemCount; j++) {
+      itemNames[j] = new String(data, dataStart + stringStart[j], stringStart[j + 1] - stringStart[j], StandardCharsets.UTF_8);
+      model.createItem(itemNames[j], capacity[j]);
+    }
+    if (model.getItemsSize() != h.itemCount) throw new IOException("Corrupt scenario file: repeated item names");
+    List<String> prefs = new ArrayList<>();
+    for(int p = 0; p < h.peopleCount; p++) {
+      int s = h.itemCount + p;
+      String name = new String(data, dataStart + stringStart[s], stringStart[s + 1] - stringStart[s], StandardCharsets.UTF_8);
+      prefs.clear();
+      for(int k = prefStart[p]; k < prefStart[p + 1]; k++) {
+        // -1 is a gap left by a removed item, which createPerson keeps as one
+        prefs.add(prefItem[k] == -1 ? null : itemNames[prefItem[k]]);
+      }
+      model.createPerson(name, priority[p], prefs);
+    }
+    if (model.getPeopleSize() != h.peopleCount) throw new IOException("Corrupt scenario file: repeated person names");
+    if (matchedItem != null) {
+      model.restoreMatching(matchedItem, h.isMatchingComplete());
+    }
+    return model;
+  }
+
+  private static void putInts(ByteBuffer buffer, long offset, int[] values) {
+    buffer.position((int) offset);
+    buffer.asIntBuffer().put(values);
+  }
+
+  private static int[] getInts(ByteBuffer buffer, long offset, int count) {
+    int[] values = new int[count];
+    buffer.position((int) offset);
+    buffer.asIntBuffer().get(values);
+    return values;
+  }
+
+  /** A little-endian view of count ints of buffer, starting at offset. */
+  static IntBuffer intView(ByteBuffer buffer, long offset, int count) {
+    ByteBuffer section = buffer.duplicate();
+    section.position((int) offset);
+    section.limit((int) offset + 4 * count);
+    return section.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+  }
+
+  /** The fixed header of a scenario file, checked against the size of the buffer it came from. */
+  static class Header {
+    final int flags;
+    final int itemCount;
+    final int peopleCount;
+    final int slotCount;
+    final ValueFunc valueFunc;
+    final long[] offsets = new long[SECTIONS];
+
+    Header(ByteBuffer buffer) throws IOException {
+      long size = buffer.limit();
+      if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a scenario file");
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported scenario file version " + version);
+      }
+      flags = buffer.getInt(8);
+      itemCount = buffer.getInt(12);
+      peopleCount = buffer.getInt(16);
+      slotCount = buffer.getInt(20);
+      valueFunc = ValueFunc.ofScalingAndPowerFactors(buffer.getDouble(24), buffer.getDouble(32), buffer.getDouble(40));
+      if (itemCount < 0 || peopleCount < 0 || slotCount < 0) corrupt("negative count");
+      for(int s = 0; s < SECTIONS; s++) {
+        offsets[s] = buffer.getLong(SECTION_TABLE + 8 * s);
+      }
+      checkSection(SECTION_CAPACITY, 4L * itemCount, size);
+      checkSection(SECTION_PRIORITY, 4L * peopleCount, size);
+      checkSection(SECTION_PREF_START, 4L * (peopleCount + 1), size);
+      checkSection(SECTION_PREF_ITEM, 4L * slotCount, size);
+      checkSection(SECTION_STRING_START, 4L * (itemCount + peopleCount + 1), size);
+      if (hasMatching()) checkSection(SECTION_MATCHING, 4L * peopleCount, size);
+      checkSection(SECTION_STRING_DATA, 0, size);
+    }
+
+    boolean hasMatching() {
+      return (flags & FLAG_MATCHING) != 0;
+    }
+
+    boolean isMatchingComplete() {
+      return (flags & FLAG_MATCHING_COMPLETE) != 0;
+    }
+
+    boolean isExactWeights() {
+      return (flags & FLAG_EXACT_WEIGHTS) != 0;
+    }
+
+    private void checkSection(int section, long length, long size) throws IOException {
+      long offset = offsets[section];
+      if (offset < HEADER_SIZE || offset + length > size || (section != SECTION_STRING_DATA && offset % 4 != 0)) {
+        corrupt("section " + section + " is out of bounds");
+      }
+    }
+
+    void checkPreferences(IntBuffer prefStart, IntBuffer prefItem) throws IOException {
+      if (prefStart.get(0) != 0 || prefStart.get(peopleCount) != slotCount) corrupt("preference table does not add up");
+      for(int p = 0; p < peopleCount; p++) {
+        if (prefStart.get(p + 1) < prefStart.get(p)) corrupt("preference table is not ordered");
+      }
+      checkItemIds(prefItem);
+    }
+
+    void checkItemIds(IntBuffer ids) throws IOException {
+      for(int k = 0; k < ids.limit(); k++) {
+        int j = ids.get(k);
+        if (j < -1 || j >= itemCount) corrupt("item id " + j + " is out of range");
+      }
+    }
+
+    /** Checks the item ids of a saved matching, and that no item holds more people than its capacity. */
+    void checkMatching(IntBuffer matchedItem, IntBuffer capacity) throws IOException {
+      checkItemIds(matchedItem);
+      int[] load = new int[itemCount];
+      for(int p = 0; p < peopleCount; p++) {
+        int j = matchedItem.get(p);
+        if (j != -1 && ++load[j] > Math.max(0, capacity.get(j))) {
+          corrupt("more people matched to item " + j + " than its capacity of " + capacity.get(j));
+        }
+      }
+    }
+
+    void checkStrings(IntBuffer stringStart, long size) throws IOException {
+      int last = stringStart.limit() - 1;
+      if (stringStart.get(0) != 0) corrupt("string table does not start at 0");
+      for(int s = 0; s < last; s++) {
+        if (stringStart.get(s + 1) < stringStart.get(s)) corrupt("string table is not ordered");
+      }
+      if (offsets[SECTION_STRING_DATA] + stringStart.get(last) > size) {
+        corrupt("string data is out of bounds");
+      }
+    }
+
+    static void corrupt(String why) throws IOException {
+      throw new IOException("Corrupt scenario file: " + why);
+    }
+  }
+}
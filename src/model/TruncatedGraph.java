@@ -0,0 +1,244 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A PreferenceGraph cut down to each person's top choices, which grows only where the solution
+ * shows a dropped choice is needed.
+ *
+ * Most people end up with one of their first few choices, so the flow network rarely needs an edge
+ * for every ranked pair. solve() matches on the top choices of everyone, then checks the result
+ * against the whole graph, and expands the people it fails on:
+ *
+ * - A dropped edge with a negative reduced cost under the solver's potentials could improve the
+ *   value, so its person gets every choice up to that one.
+ * - A path from the source to the sink through dropped edges could improve the size, so the people
+ *   along it get every choice up to the one the path takes.
+ *
+ * The solver then repairs and carries on as after an edit, unless too many people were expanded at
+ * once (see RESTART_LIMIT), when it starts over on all choices. Once neither check finds anything,
+ * every edge of the whole graph has a non-negative reduced cost and no augmenting path is left, which
+ * together prove the flow a max-cardinality, max-value matching of the whole graph.
+ *
+ * People, items and edges keep the numbers of the graph.
+ *
+ * @author Mshnik
+ */
+final class TruncatedGraph implements PreferenceGraph {
+
+  /**
+   * If one round expands more than 1/this of the people, the top choices were not where the matching
+   * is, and repairing them all is slower than solving again; everyone then gets all choices instead.
+   */
+  private static final int RESTART_LIMIT = 8;
+
+  private final PreferenceGraph graph;
+  private final int peopleCount;
+  private final int itemCount;
+  /** End of the edges of each person, up to graph.edgeEnd. */
+  private final int[] end;
+  private int expansions;
+
+  TruncatedGraph(PreferenceGraph graph, int choices) {
+    this.graph = graph;
+    peopleCount = graph.getPeopleCount();
+    itemCount = graph.getItemCount();
+    end = new int[peopleCount];
+    for(int p = 0; p < peopleCount; p++) {
+      end[p] = graph.edgeStart(p);
+      for(int taken = 0; taken < choices && end[p] < graph.edgeEnd(p); end[p]++) {
+        if (graph.edgeItem(end[p]) != -1) taken++;
+      }
+    }
+  }
+
+  /**
+   * A solver of graph that starts on the top choices of each person, and has found a max-cardinality,
+   * max-value matching of all of graph when it returns; unless the monitor, which may be null, stopped
+   * it first.
+   */
+  static MinCostFlowMatcher solve(PreferenceGraph graph, int choices, MatchMonitor monitor) {
+    TruncatedGraph truncated = new TruncatedGraph(graph, choices);
+    MinCostFlowMatcher solver = new MinCostFlowMatcher(truncated);
+    while (solver.solve(monitor)) {
+      int expansions = truncated.expansions;
+      if (! truncated.expand(solver)) break;
+      if (truncated.expansions - expansions > truncated.peopleCount / RESTART_LIMIT) {
+        for(int p = 0; p < truncated.peopleCount; p++) {
+          truncated.end[p] = graph.edgeEnd(p);
+        }
+        MinCostFlowMatcher restarted = new MinCostFlowMatcher(truncated);
+        restarted.addWork(solver);
+        solver = restarted;
+      }
+    }
+    return solver;
+  }
+
+  /**
+   * Expands the people whose dropped edges break the optimality of solver's flow in the whole graph,
+   * and tells solver. Returns false if there were none, so the flow is optimal.
+   */
+  boolean expand(MinCostFlowMatcher solver) {
+    boolean expanded = false;
+    for(int p = 0; p < peopleCount; p++) {
+      int j = solver.getMatchedItem(p);
+      long potential = solver.getPotential(p);
+      int last = -1;
+      for(int e = end[p]; e < graph.edgeEnd(p); e++) {
+        int k = graph.edgeItem(e);
+        if (k != -1 && k != j && graph.edgeWeight(p, e) + solver.getPotential(peopleCount + k) > potential) {
+          last = e;
+        }
+      }
+      if (last != -1) {
+        expandTo(solver, p, last);
+        expanded = true;
+      }
+    }
+    return expanded || expandPaths(solver);
+  }
+
+  /**
+   * Searches the residual network of the whole graph from the source, and expands the people on the
+   * way to every item with room left that it reaches through a dropped edge.
+   */
+  private boolean expandPaths(MinCostFlowMatcher solver) {
+    int[] load = new int[itemCount];
+    for(int p = 0; p < peopleCount; p++) {
+      if (solver.getMatchedItem(p) != -1) load[solver.getMatchedItem(p)]++;
+    }
+    int[] holderStart = new int[itemCount + 1];
+    for(int j = 0; j < itemCount; j++) {
+      holderStart[j + 1] = holderStart[j] + load[j];
+    }
+    int[] holders = new int[holderStart[itemCount]];
+    int[] next = Arrays.copyOf(holderStart, itemCount);
+    for(int p = 0; p < peopleCount; p++) {
+      int j = solver.getMatchedItem(p);
+      if (j != -1) holders[next[j]++] = p;
+    }
+
+    int[] parentPerson = new int[itemCount];
+    int[] parentEdge = new int[itemCount];
+    boolean[] reached = new boolean[peopleCount + itemCount];
+    boolean[] traced = new boolean[itemCount];
+    int[] queue = new int[peopleCount + itemCount];
+    int head = 0;
+    int tail = 0;
+    for(int p = 0; p < peopleCount; p++) {
+      if (solver.getMatchedItem(p) == -1) {
+        reached[p] = true;
+        queue[tail++] = p;
+      }
+    }
+    boolean expanded = false;
+    while (head < tail) {
+      int v = queue[head++];
+      if (v < peopleCount) {
+        for(int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+          int j = graph.edgeItem(e);
+          if (j != -1 && j != solver.getMatchedItem(v) && ! reached[peopleCount + j]) {
+            reached[peopleCount + j] = true;
+            parentPerson[j] = v;
+            parentEdge[j] = e;
+            queue[tail++] = peopleCount + j;
+          }
+        }
+      } else {
+        int j = v - peopleCount;
+        if (load[j] < graph.capacity(j)) {
+          for(int k = j; k != -1 && ! traced[k]; k = solver.getMatchedItem(parentPerson[k])) {
+            traced[k] = true;
+            if (parentEdge[k] >= end[parentPerson[k]]) {
+              expandTo(solver, parentPerson[k], parentEdge[k]);
+              expanded = true;
+            }
+          }
+        }
+        for(int h = holderStart[j]; h < holderStart[j + 1]; h++) {
+          if (! reached[holders[h]]) {
+            reached[holders[h]] = true;
+            queue[tail++] = holders[h];
+          }
+        }
+      }
+    }
+    return expanded;
+  }
+
+  private void expandTo(MinCostFlowMatcher solver, int p, int e) {
+    end[p] = e + 1;
+    expansions++;
+    solver.choicesAdded(p);
+  }
+
+  /** Number of times a person was expanded so far. */
+  int getExpansions() {
+    return expansions;
+  }
+
+  /** Number of edges left in, out of those of the whole graph. */
+  long getEdgeCount() {
+    long edges = 0;
+    for(int p = 0; p < peopleCount; p++) {
+      edges += end[p] - graph.edgeStart(p);
+    }
+    return edges;
+  }
+
+  @Override
+  public int getPeopleCount() {
+    return peopleCount;
+  }
+
+  @Override
+  public int getItemCount() {
+    return itemCount;
+  }
+
+  @Override
+  public int capacity(int item) {
+    return graph.capacity(item);
+  }
+
+  @Override
+  public int priority(int p) {
+    return graph.priority(p);
+  }
+
+  @Override
+  public int edgeStart(int p) {
+    return graph.edgeStart(p);
+  }
+
+  @Override
+  public int edgeEnd(int p) {
+    return end[p];
+  }
+
+  @Override
+  public int edgeItem(int e) {
+    return graph.edgeItem(e);
+  }
+
+  @Override
+  public int edgeValue(int p, int e) {
+    return graph.edgeValue(p, e);
+  }
+
+  @Override
+  public long edgeWeight(int p, int e) {
+    return graph.edgeWeight(p, e);
+  }
+
+  @Override
+  public double getWeightScale() {
+    return graph.getWeightScale();
+  }
+
+  @Override
+  public int getLayoutVersion() {
+    return graph.getLayoutVersion();
+  }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Objects;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -12,6 +13,8 @@ import java.util.function.Function;
  */
 public class ValueFunc implements Serializable {
 
+  private static final long serialVersionUID = -7039193876107383934L;
+
   public static ValueFunc DEFAULT = new ValueFunc(10, 1, 1);
 
   public static ValueFunc ofScalingFactors (final double prefScaling, final double priorityScaling) {
@@ -25,10 +28,15 @@ public class ValueFunc implements Serializable {
     return new ValueFunc(prefScaling, prefPower, priorityScaling);
   }
 
+  /** Largest prefPower evaluated by repeated multiplication rather than Math.pow. */
+  private static final int MAX_INT_POWER = 8;
+
   private double prefScaling;
   private double prefPower;
   private double priorityScaling;
   public transient BiFunction<Double, Double, Double> f;
+  /** prefPower, if it is a whole number from 0 to MAX_INT_POWER, otherwise -1. */
+  private transient int intPower;
 
   private ValueFunc(double prefScaling, double prefPower, double priorityScaling) {
     this.prefScaling = prefScaling;
@@ -51,16 +59,45 @@ public class ValueFunc implements Serializable {
   }
 
   private void createFunction() {
-    f = (pref, priority) ->
-        prefScaling * Math.pow(pref, prefPower) + priorityScaling * pref * priority;
+    intPower = prefPower >= 0 && prefPower <= MAX_INT_POWER && prefPower == Math.rint(prefPower) ? (int) prefPower : -1;
+    f = this::apply;
   }
 
   public double apply(int pref, int priority) {
-    return f.apply((double)pref, (double)priority);
+    return apply((double) pref, (double) priority);
   }
 
+  /** Evaluated on primitives, without boxing; f is the same function as a BiFunction. */
   public double apply(double pref, double priority) {
-    return f.apply(pref, priority);
+    return prefScaling * pow(pref) + priorityScaling * pref * priority;
+  }
+
+  /** pref^prefPower, multiplied out for small whole powers. */
+  private double pow(double pref) {
+    switch (intPower) {
+      case 0: return 1;
+      case 1: return pref;
+      case 2: return pref * pref;
+      case -1: return Math.pow(pref, prefPower);
+      default:
+        double result = pref;
+        for(int k = 1; k < intPower; k++) {
+          result *= pref;
+        }
+        return result;
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (! (o instanceof ValueFunc)) return false;
+    ValueFunc other = (ValueFunc) o;
+    return prefScaling == other.prefScaling && prefPower == other.prefPower && priorityScaling == other.priorityScaling;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(prefScaling, prefPower, priorityScaling);
   }
 
   public String toString() {
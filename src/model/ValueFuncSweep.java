@@ -0,0 +1,245 @@
+package model;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Solves one roster under many ValueFuncs at once, for comparing weightings side by side.
+ *
+ * The roster is compiled (or mapped) once and shared read only by every solve. Each ValueFunc only
+ * adds its own edge weights and solver state, so solves run in parallel on a ForkJoinPool without
+ * copying the problem. Every Result has the matched share, the score against the best possible, and
+ * how many people got each of their choices.
+ *
+ * @author Mshnik
+ */
+public class ValueFuncSweep {
+
+  /** How one ValueFunc did. */
+  public static class Result {
+    private final ValueFunc valueFunc;
+    private final int people;
+    private final int matched;
+    private final double score;
+    private final double maxScore;
+    private final int[] rankCounts;
+
+    private Result(ValueFunc valueFunc, int people, int matched, double score, double maxScore, int[] rankCounts) {
+      this.valueFunc = valueFunc;
+      this.people = people;
+      this.matched = matched;
+      this.score = score;
+      this.maxScore = maxScore;
+      this.rankCounts = rankCounts;
+    }
+
+    public ValueFunc getValueFunc() {
+      return valueFunc;
+    }
+
+    public int getMatched() {
+      return matched;
+    }
+
+    public double getMatchedPercentage() {
+      return people == 0 ? 0 : ((double) matched) / people;
+    }
+
+    /** As APPModel.getMatchingScore(). */
+    public double getScore() {
+      return score;
+    }
+
+    /**
+     * The score if everyone got their first choice. As APPModel.getMaxScore(), but summed as doubles,
+     * so it is never below getScore() under fractional scalings.
+     */
+    public double getMaxScore() {
+      return maxScore;
+    }
+
+    /** Number of people assigned their choice at the given 0-based rank: 0 is a first choice. */
+    public int getRankCount(int rank) {
+      return rank < rankCounts.length ? rankCounts[rank] : 0;
+    }
+
+    /** One more than the lowest rank anyone could have been assigned. */
+    public int getRanks() {
+      return rankCounts.length;
+    }
+
+    public int getUnassigned() {
+      return people - matched;
+    }
+
+    public String toString() {
+      return String.format("%s: matched %.2f%%, score %.1f of %.1f, ranks %s", valueFunc,
+          getMatchedPercentage() * 100, score, maxScore, Arrays.toString(rankCounts));
+    }
+  }
+
+  private final PreferenceGraph graph;
+  private final boolean exactWeights;
+
+  /**
+   * Sweeps the model as it is now, weighing choices as the model does; later edits to the model do
+   * not affect this sweep.
+   */
+  public ValueFuncSweep(APPModel model) {
+    graph = CompiledProblem.compile(model.getPeople(), model.getItems(), model.getValueFunc());
+    exactWeights = model.isExactWeights();
+  }
+
+  public ValueFuncSweep(MappedScenario scenario) {
+    graph = scenario;
+    exactWeights = scenario.isExactWeights();
+  }
+
+  /** Every combination of the given parameters, as ValueFunc.ofScalingAndPowerFactors takes them. */
+  public static List<ValueFunc> grid(double[] prefScalings, double[] prefPowers, double[] priorityScalings) {
+    List<ValueFunc> grid = new ArrayList<>(prefScalings.length * prefPowers.length * priorityScalings.length);
+    for(double prefScaling : prefScalings) {
+      for(double prefPower : prefPowers) {
+        for(double priorityScaling : priorityScalings) {
+          grid.add(ValueFunc.ofScalingAndPowerFactors(prefScaling, prefPower, priorityScaling));
+        }
+      }
+    }
+    return grid;
+  }
+
+  /** Solves every ValueFunc on the common pool. Results are in the order of valueFuncs. */
+  public List<Result> run(List<ValueFunc> valueFuncs) {
+    return run(valueFuncs, ForkJoinPool.commonPool());
+  }
+
+  /** Solves every ValueFunc on the given pool. Results are in the order of valueFuncs. */
+  public List<Result> run(List<ValueFunc> valueFuncs, ForkJoinPool pool) {
+    List<Callable<Result>> tasks = new ArrayList<>(valueFuncs.size());
+    for(ValueFunc f : valueFuncs) {
+      tasks.add(() -> solve(f));
+    }
+    List<Result> results = new ArrayList<>(tasks.size());
+    try {
+      for(Future<Result> future : pool.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Sweep was interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return results;
+  }
+
+  /** Solves a single ValueFunc on the calling thread. */
+  public Result solve(ValueFunc f) {
+    MinCostFlowMatcher solver = new MinCostFlowMatcher(new Reweighted(graph, f, exactWeights));
+    solver.solve();
+
+    int people = graph.getPeopleCount();
+    int longest = 0;
+    for(int p = 0; p < people; p++) {
+      longest = Math.max(longest, graph.edgeEnd(p) - graph.edgeStart(p));
+    }
+    int[] rankCounts = new int[longest];
+    double score = 0;
+    double maxScore = 0;
+    for(int p = 0; p < people; p++) {
+      int start = graph.edgeStart(p);
+      if (start < graph.edgeEnd(p)) {
+        maxScore += f.apply(graph.edgeValue(p, start), graph.priority(p));
+      }
+      if (solver.getMatchedItem(p) != -1) {
+        int e = solver.getMatchedEdge(p);
+        rankCounts[e - start]++;
+        score += f.apply(graph.edgeValue(p, e), graph.priority(p));
+      }
+    }
+    return new Result(f, people, solver.getMatchedCount(), score, maxScore, rankCounts);
+  }
+
+  /** The edges of a shared graph, weighed by another ValueFunc. */
+  private static class Reweighted implements PreferenceGraph {
+    private final PreferenceGraph graph;
+    private final long[] weight;
+    private final double scale;
+
+    Reweighted(PreferenceGraph graph, ValueFunc f, boolean exactWeights) {
+      this.graph = graph;
+      int edges = 0;
+      for(int p = 0; p < graph.getPeopleCount(); p++) {
+        edges = Math.max(edges, graph.edgeEnd(p));
+      }
+      weight = new long[edges];
+      WeightTable weights = WeightTable.of(graph, f, exactWeights);
+      scale = weights.getScale();
+      for(int p = 0; p < graph.getPeopleCount(); p++) {
+        for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+          if (graph.edgeItem(e) != -1) {
+            weight[e] = weights.weigh(graph.edgeValue(p, e), graph.priority(p));
+          }
+        }
+      }
+    }
+
+    @Override
+    public int getPeopleCount() {
+      return graph.getPeopleCount();
+    }
+
+    @Override
+    public int getItemCount() {
+      return graph.getItemCount();
+    }
+
+    @Override
+    public int capacity(int item) {
+      return graph.capacity(item);
+    }
+
+    @Override
+    public int priority(int p) {
+      return graph.priority(p);
+    }
+
+    @Override
+    public int edgeStart(int p) {
+      return graph.edgeStart(p);
+    }
+
+    @Override
+    public int edgeEnd(int p) {
+      return graph.edgeEnd(p);
+    }
+
+    @Override
+    public int edgeItem(int e) {
+      return graph.edgeItem(e);
+    }
+
+    @Override
+    public int edgeValue(int p, int e) {
+      return graph.edgeValue(p, e);
+    }
+
+    @Override
+    public long edgeWeight(int p, int e) {
+      return weight[e];
+    }
+
+    @Override
+    public int getLayoutVersion() {
+      return graph.getLayoutVersion();
+    }
+
+    @Override
+    public double getWeightScale() {
+      return scale;
+    }
+  }
+}
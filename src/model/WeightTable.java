@@ -0,0 +1,121 @@
+package model;
+
+/**
+ * Edge weights of a ValueFunc, precomputed for every preference value and priority of a problem.
+ *
+ * A weight depends only on the value of the choice and the priority of the person, and both come
+ * from small ranges: values go up to the length of the longest list, and priorities are a few
+ * levels. Tabulating them once means weighing every edge is an array lookup rather than a
+ * ValueFunc evaluation. A value or priority outside the table (say, after an edit) is weighed
+ * directly, as is everything if the ranges are too wide to tabulate.
+ *
+ * Weights are ValueFunc output times a scale, rounded to a long. The scale is chosen from the
+ * largest weight the ranges allow, so that no path the solver sums can overflow: normally it is
+ * WEIGHT_SCALE (a resolution of 1e-6), or a smaller power of ten if that does not fit. In exact mode
+ * it is instead the power of two that makes the largest weight about 2^40. Values then only tie if
+ * they agree to about 12 digits, and rounding still absorbs floating point error, so values that are
+ * equal on paper always tie. Finer weights mean more distinct path lengths, so exact solves can
+ * take more phases.
+ *
+ * @author Mshnik
+ */
+final class WeightTable {
+
+  /** Most entries a table may have. */
+  private static final int MAX_SIZE = 1 << 20;
+  /** Bound on the sum of the largest weight over every node, well below the solver's INF. */
+  private static final double SUM_LIMIT = 0x1p59;
+  /** Largest weight in exact mode, leaving 12 bits of a double for rounding error. */
+  private static final double EXACT_LIMIT = 0x1p40;
+
+  private final ValueFunc valueFunc;
+  private final double scale;
+  private final int maxValue;
+  private final int minPriority;
+  private final int priorities;
+  /** weight[(priority - minPriority) * (maxValue + 1) + value]. */
+  private final long[] weight;
+
+  /**
+   * Tabulates values 0..maxValue for priorities minPriority..maxPriority, with a scale for a
+   * network of the given number of nodes.
+   */
+  WeightTable(ValueFunc valueFunc, int maxValue, int minPriority, int maxPriority, int nodes, boolean exact) {
+    this.valueFunc = valueFunc;
+    int maxMagnitude = maxPriority < minPriority ? 0 : Math.max(Math.abs(minPriority), Math.abs(maxPriority));
+    scale = chooseScale(valueFunc, maxValue, maxMagnitude, nodes, exact);
+    long size = ((long) maxValue + 1) * ((long) maxPriority - minPriority + 1);
+    if (maxValue < 0 || maxPriority < minPriority || size > MAX_SIZE) {
+      this.maxValue = -1;
+      this.minPriority = 0;
+      priorities = 0;
+      weight = new long[0];
+      return;
+    }
+    this.maxValue = maxValue;
+    this.minPriority = minPriority;
+    priorities = maxPriority - minPriority + 1;
+    weight = new long[(int) size];
+    for(int k = 0; k < priorities; k++) {
+      for(int value = 0; value <= maxValue; value++) {
+        weight[k * (maxValue + 1) + value] = CompiledProblem.weigh(valueFunc, value, minPriority + k, scale);
+      }
+    }
+  }
+
+  /** A table covering every edge of the given graph. */
+  static WeightTable of(PreferenceGraph graph, ValueFunc valueFunc, boolean exact) {
+    int maxValue = 0;
+    int minPriority = Integer.MAX_VALUE;
+    int maxPriority = Integer.MIN_VALUE;
+    for(int p = 0; p < graph.getPeopleCount(); p++) {
+      minPriority = Math.min(minPriority, graph.priority(p));
+      maxPriority = Math.max(maxPriority, graph.priority(p));
+      for(int e = graph.edgeStart(p); e < graph.edgeEnd(p); e++) {
+        if (graph.edgeItem(e) != -1) {
+          maxValue = Math.max(maxValue, graph.edgeValue(p, e));
+        }
+      }
+    }
+    int nodes = graph.getPeopleCount() + graph.getItemCount() + 2;
+    return new WeightTable(valueFunc, maxValue, minPriority, maxPriority, nodes, exact);
+  }
+
+  /**
+   * The scale for values up to maxValue and priorities up to maxPriority in magnitude. Bounds each
+   * term of the ValueFunc separately, as the largest weight may be anywhere in the range.
+   */
+  static double chooseScale(ValueFunc valueFunc, int maxValue, int maxPriority, int nodes, boolean exact) {
+    double largest = Math.abs(valueFunc.getPrefScaling()) * Math.max(1, Math.pow(maxValue, valueFunc.getPrefPower()))
+        + Math.abs(valueFunc.getPriorityScaling()) * maxValue * maxPriority;
+    double limit = SUM_LIMIT / Math.max(1, nodes);
+    if (exact) {
+      limit = Math.min(limit, EXACT_LIMIT);
+      return largest > 0 && largest < Double.POSITIVE_INFINITY
+          ? Math.scalb(1.0, Math.getExponent(limit / largest)) : CompiledProblem.WEIGHT_SCALE;
+    }
+    double scale = CompiledProblem.WEIGHT_SCALE;
+    while (largest * scale > limit && scale > Double.MIN_NORMAL) {
+      scale /= 10;
+    }
+    return scale;
+  }
+
+  ValueFunc getValueFunc() {
+    return valueFunc;
+  }
+
+  /** Weight units per unit of ValueFunc output. */
+  double getScale() {
+    return scale;
+  }
+
+  /** Same as CompiledProblem.weigh(getValueFunc(), value, priority, getScale()). */
+  long weigh(int value, int priority) {
+    int k = priority - minPriority;
+    if (value >= 0 && value <= maxValue && k >= 0 && k < priorities) {
+      return weight[k * (maxValue + 1) + value];
+    }
+    return CompiledProblem.weigh(valueFunc, value, priority, scale);
+  }
+}